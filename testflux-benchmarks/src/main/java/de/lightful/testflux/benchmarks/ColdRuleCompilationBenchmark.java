@@ -0,0 +1,80 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.benchmarks;
+
+import de.lightful.testflux.drools.impl.CompilationUnit;
+import de.lightful.testflux.drools.impl.KnowledgePackageCompiler;
+import de.lightful.testflux.drools.impl.TestFluxMetrics;
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the first compilation of a rule set in a JVM, which is what the first test class of a suite pays: nothing
+ * is compiled in the fork before the single measured call, so Drools, MVEL and the Java compiler start cold.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(5)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class ColdRuleCompilationBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  public int numberOfRules;
+
+  private SyntheticRuleSet ruleSet;
+  private List<CompilationUnit> compilationUnits;
+
+  /**
+   * Only writes the rule files.
+   */
+  @Setup(Level.Trial)
+  public void createRuleSet() throws IOException {
+    ruleSet = SyntheticRuleSet.create(numberOfRules);
+    compilationUnits = ruleSet.asCompilationUnits();
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteRuleSet() {
+    ruleSet.delete();
+  }
+
+  @Benchmark
+  public KnowledgeBase compileCold() {
+    KnowledgeBase knowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+    knowledgeBase.addKnowledgePackages(new KnowledgePackageCompiler(1, null, new TestFluxMetrics()).compile(compilationUnits));
+    return knowledgeBase;
+  }
+}
@@ -0,0 +1,123 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.benchmarks;
+
+import de.lightful.testflux.drools.impl.ClasspathFingerprint;
+import de.lightful.testflux.drools.impl.CompilationUnit;
+import de.lightful.testflux.drools.impl.KnowledgePackageCache;
+import de.lightful.testflux.drools.impl.KnowledgePackageCompiler;
+import de.lightful.testflux.drools.impl.PersistentPackageStore;
+import de.lightful.testflux.drools.impl.TestFluxMetrics;
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.definition.KnowledgePackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the listener does to provide a KnowledgeBase for a test class: compile the class' rule set (or take it
+ * from one of the caches) and assemble a new KnowledgeBase from the packages.
+ * <p/>
+ * The trial setup compiles the rule set, so all of these run warm; see {@link ColdRuleCompilationBenchmark} for the
+ * first compilation in a JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RuleCompilationBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  public int numberOfRules;
+
+  private SyntheticRuleSet ruleSet;
+  private List<CompilationUnit> compilationUnits;
+  private File storeDirectory;
+  private TestFluxMetrics metrics;
+  private KnowledgePackageCompiler uncachedCompiler;
+  private KnowledgePackageCompiler storeBackedCompiler;
+  private KnowledgePackageCache warmCache;
+
+  @Setup(Level.Trial)
+  public void createRuleSet() throws IOException {
+    ruleSet = SyntheticRuleSet.create(numberOfRules);
+    compilationUnits = ruleSet.asCompilationUnits();
+    metrics = new TestFluxMetrics();
+    uncachedCompiler = new KnowledgePackageCompiler(1, null, metrics);
+
+    storeDirectory = File.createTempFile("testflux-benchmark-store-", "");
+    storeDirectory.delete();
+    PersistentPackageStore packageStore = new PersistentPackageStore(storeDirectory, ClasspathFingerprint.compute(ClasspathFingerprint.systemClasspath()));
+    storeBackedCompiler = new KnowledgePackageCompiler(1, packageStore, metrics);
+    storeBackedCompiler.compile(compilationUnits);
+
+    warmCache = new KnowledgePackageCache(metrics);
+    warmCache.obtainPackages(compilationUnits, uncachedCompiler);
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteRuleSet() {
+    ruleSet.delete();
+    final File[] entries = storeDirectory.listFiles();
+    if (entries != null) {
+      for (File entry : entries) {
+        entry.delete();
+      }
+    }
+    storeDirectory.delete();
+  }
+
+  @Benchmark
+  public KnowledgeBase compileWarmWithoutCache() {
+    return assemble(uncachedCompiler.compile(compilationUnits));
+  }
+
+  @Benchmark
+  public KnowledgeBase loadFromPersistentStore() {
+    return assemble(new KnowledgePackageCache(metrics).obtainPackages(compilationUnits, storeBackedCompiler));
+  }
+
+  @Benchmark
+  public KnowledgeBase assembleFromMemoryCache() {
+    return assemble(warmCache.obtainPackages(compilationUnits, uncachedCompiler));
+  }
+
+  private KnowledgeBase assemble(Collection<KnowledgePackage> knowledgePackages) {
+    KnowledgeBase knowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+    knowledgeBase.addKnowledgePackages(knowledgePackages);
+    return knowledgeBase;
+  }
+}
@@ -0,0 +1,89 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.benchmarks;
+
+import de.lightful.testflux.drools.impl.KnowledgePackageCompiler;
+import de.lightful.testflux.drools.impl.KnowledgeSessionPool;
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a typical rule test body on a session handed out the way the listener injects it: borrow a pooled session,
+ * insert facts, fire all rules, give the session back (which replaces it by a new one).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RuleFiringBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  public int numberOfRules;
+
+  @Param({"1000"})
+  public int numberOfFacts;
+
+  private SyntheticRuleSet ruleSet;
+  private KnowledgeSessionPool sessionPool;
+
+  @Setup(Level.Trial)
+  public void createSessionPool() throws IOException {
+    ruleSet = SyntheticRuleSet.create(numberOfRules);
+    KnowledgeBase knowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+    knowledgeBase.addKnowledgePackages(new KnowledgePackageCompiler().compile(ruleSet.asCompilationUnits()));
+    sessionPool = new KnowledgeSessionPool(knowledgeBase, 1);
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteRuleSet() {
+    sessionPool.dispose();
+    ruleSet.delete();
+  }
+
+  @Benchmark
+  public int insertAndFireAllRules() {
+    StatefulKnowledgeSession session = sessionPool.borrowSession("benchmark", "insertAndFireAllRules");
+    try {
+      for (int fact = 0; fact < numberOfFacts; fact++) {
+        session.insert(fact);
+      }
+      return session.fireAllRules();
+    }
+    finally {
+      sessionPool.returnSession(session);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.benchmarks;
+
+import de.lightful.testflux.drools.impl.CompilationUnit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A generated set of DRL files in a temporary directory. Rule <code>n</code> matches the fact
+ * <code>Integer(n)</code>, so inserting the integers from zero upwards activates one rule per fact.
+ */
+public class SyntheticRuleSet {
+
+  private static final int RULES_PER_FILE = 100;
+
+  private final File directory;
+  private final List<File> ruleFiles;
+
+  private SyntheticRuleSet(File directory, List<File> ruleFiles) {
+    this.directory = directory;
+    this.ruleFiles = ruleFiles;
+  }
+
+  public static SyntheticRuleSet create(int numberOfRules) throws IOException {
+    File directory = File.createTempFile("testflux-benchmark-", "");
+    if (!directory.delete() || !directory.mkdirs()) {
+      throw new IOException("Cannot create directory " + directory.getAbsolutePath());
+    }
+    List<File> ruleFiles = new ArrayList<File>();
+    for (int firstRule = 0; firstRule < numberOfRules; firstRule += RULES_PER_FILE) {
+      final int fileNumber = firstRule / RULES_PER_FILE;
+      File ruleFile = new File(directory, "rules-" + fileNumber + ".drl");
+      writeRuleFile(ruleFile, fileNumber, firstRule, Math.min(numberOfRules, firstRule + RULES_PER_FILE));
+      ruleFiles.add(ruleFile);
+    }
+    return new SyntheticRuleSet(directory, ruleFiles);
+  }
+
+  public List<CompilationUnit> asCompilationUnits() {
+    return Collections.singletonList(new CompilationUnit("directory " + directory.getName(), ruleFiles));
+  }
+
+  public void delete() {
+    for (File ruleFile : ruleFiles) {
+      ruleFile.delete();
+    }
+    directory.delete();
+  }
+
+  private static void writeRuleFile(File ruleFile, int fileNumber, int firstRule, int endRule) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(ruleFile), "UTF-8");
+    try {
+      writer.write("package de.lightful.testflux.benchmarks.generated.file" + fileNumber + ";\n\n");
+      for (int rule = firstRule; rule < endRule; rule++) {
+        writer.write("rule \"rule-" + rule + "\"\n");
+        writer.write("when\n");
+        writer.write("  Integer( intValue == " + rule + " )\n");
+        writer.write("then\n");
+        writer.write("end\n\n");
+      }
+    }
+    finally {
+      writer.close();
+    }
+  }
+}
@@ -16,33 +16,201 @@
 
 package de.lightful.testflux.drools;
 
-import com.google.inject.Inject;
-import de.lightful.testflux.drools.impl.IterableAdapter;
-import org.apache.commons.io.FileUtils;
+import de.lightful.testflux.drools.impl.ClasspathFingerprint;
+import de.lightful.testflux.drools.impl.AllocationMeter;
+import de.lightful.testflux.drools.impl.CompilationUnit;
+import de.lightful.testflux.drools.impl.CopyOnWriteKnowledgeBase;
+import de.lightful.testflux.drools.impl.FactFixtureCache;
+import de.lightful.testflux.drools.impl.InjectionPlan;
+import de.lightful.testflux.drools.impl.KnowledgePackageCache;
+import de.lightful.testflux.drools.impl.KnowledgePackageCompiler;
+import de.lightful.testflux.drools.impl.KnowledgeSessionPool;
+import de.lightful.testflux.drools.impl.KnowledgeSessionPools;
+import de.lightful.testflux.drools.impl.PerformanceBaseline;
+import de.lightful.testflux.drools.impl.PerformanceBudgetVerifier;
+import de.lightful.testflux.drools.impl.PersistentPackageStore;
+import de.lightful.testflux.drools.impl.ProfilingKnowledgeBase;
+import de.lightful.testflux.drools.impl.ProfilingSession;
+import de.lightful.testflux.drools.impl.RuleFiringProfiler;
+import de.lightful.testflux.drools.impl.RuleProfileReport;
+import de.lightful.testflux.drools.impl.RuleDirectoryScanner;
+import de.lightful.testflux.drools.impl.RuleSetKey;
+import de.lightful.testflux.drools.impl.RuleSourceResolver;
+import de.lightful.testflux.drools.impl.RuleUsageRegistry;
+import de.lightful.testflux.drools.impl.SharedKnowledgeBases;
+import de.lightful.testflux.drools.impl.TestFluxConfiguration;
+import de.lightful.testflux.drools.impl.TestFluxMetrics;
+import de.lightful.testflux.drools.impl.TestFluxMetrics.Phase;
+import de.lightful.testflux.drools.impl.ThreadBoundProxy;
 import org.apache.log4j.Logger;
 import org.drools.KnowledgeBase;
-import org.drools.builder.KnowledgeBuilder;
-import org.drools.builder.KnowledgeBuilderError;
-import org.drools.builder.KnowledgeBuilderFactory;
-import org.drools.builder.ResourceType;
-import org.drools.io.ResourceFactory;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.definition.KnowledgePackage;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
 import org.testng.ITestContext;
 import org.testng.ITestListener;
 import org.testng.ITestResult;
+import org.testng.xml.XmlSuite;
 
 import java.io.File;
-import java.lang.reflect.Field;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-
-public class DroolsRuleTestListener implements ITestListener {
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Compiles the rules named by {@link CompileRules} and injects KnowledgeBases and sessions into test instances.
+ * <p/>
+ * All <code>PARAMETER_*</code> settings are looked up in a {@link TestFluxConfiguration}, so they can be given in
+ * <code>testflux.properties</code> on the classpath, as suite parameters or as system properties.
+ */
+public class DroolsRuleTestListener implements ITestListener, ISuiteListener, IInvokedMethodListener {
 
   private static Logger log = Logger.getLogger(DroolsRuleTestListener.class);
 
-  private ThreadLocal<ITestResult> testResult = new ThreadLocal<ITestResult>();
-  private static final String TESTFLUX_CONFIG_FILE = "/testflux.properties";
+  /**
+   * Shared by all listener instances, so test classes compiling the same rule files reuse each other's packages.
+   */
+  private static final TestFluxMetrics metrics = new TestFluxMetrics();
+
+  private static final KnowledgePackageCache packageCache = new KnowledgePackageCache(metrics);
+
+  /**
+   * Configuration property giving the number of threads used to compile the rule sources of a test class. Values
+   * greater than one enable parallel compilation (see {@link KnowledgePackageCompiler}).
+   */
+  public static final String PARAMETER_COMPILE_THREADS = "testflux.compile.threads";
+
+  /**
+   * Configuration property naming the directory (relative to the rules root directory, if not absolute) where compiled
+   * packages are kept between test runs. An empty value disables the persistent cache.
+   */
+  public static final String PARAMETER_CACHE_DIRECTORY = "testflux.cache.directory";
+
+  private static final String DEFAULT_CACHE_DIRECTORY = "target" + File.separator + "testflux-cache";
+
+  /**
+   * Configuration property giving the maximum number of compiled rule sets kept in memory. Zero (the default) means no
+   * limit.
+   */
+  public static final String PARAMETER_CACHE_MAX_ENTRIES = "testflux.cache.max.entries";
+
+  /**
+   * Configuration property giving the maximum estimated size, in bytes, of the compiled rule sets kept in memory (see
+   * {@link KnowledgePackageCache}). Defaults to a quarter of the maximum heap size. Zero means no limit.
+   */
+  public static final String PARAMETER_CACHE_MAX_BYTES = "testflux.cache.max.bytes";
+
+  /**
+   * Configuration property choosing which compiled rule sets to drop when a cache limit is exceeded: <code>LRU</code>
+   * (the default) or <code>LFU</code>.
+   */
+  public static final String PARAMETER_CACHE_EVICTION = "testflux.cache.eviction";
+
+  /**
+   * Configuration property telling whether the garbage collector may drop compiled rule sets when the heap runs low.
+   * Defaults to <code>true</code>.
+   */
+  public static final String PARAMETER_CACHE_SOFT_REFERENCES = "testflux.cache.soft.references";
+
+  /**
+   * Configuration property giving the maximum number of idle sessions kept per rule set for injection into
+   * {@link StatefulKnowledgeSession} fields. Zero disables pooling: every test gets a new session.
+   */
+  public static final String PARAMETER_SESSION_POOL_SIZE = "testflux.session.pool.size";
+
+  private static final int DEFAULT_SESSION_POOL_SIZE = 4;
+
+  private static final KnowledgeSessionPools sessionPools = new KnowledgeSessionPools(packageCache);
+
+  private static final RuleDirectoryScanner directoryScanner = new RuleDirectoryScanner();
+
+  private static final RuleUsageRegistry ruleUsage = new RuleUsageRegistry();
+
+  /**
+   * Configuration property giving the default {@link KnowledgeBaseSharing} level for test classes without
+   * {@link ShareKnowledgeBase} annotation. Defaults to <code>METHOD</code>, i.e. no sharing.
+   */
+  public static final String PARAMETER_KNOWLEDGE_BASE_SHARING = "testflux.knowledgebase.sharing";
+
+  private static final SharedKnowledgeBases sharedKnowledgeBases = new SharedKnowledgeBases();
+
+  /**
+   * Configuration property naming the directory the metrics report (<code>testflux-metrics.json</code> and
+   * <code>testflux-metrics.csv</code>) is written to. Defaults to the TestNG output directory of the test.
+   */
+  public static final String PARAMETER_METRICS_DIRECTORY = "testflux.metrics.directory";
+
+  /**
+   * Configuration property giving the number of slowest rule files logged when a test finishes.
+   */
+  public static final String PARAMETER_METRICS_TOP = "testflux.metrics.top";
+
+  private static final int DEFAULT_METRICS_TOP = 10;
+
+  /**
+   * Configuration property enabling the rule firing profiler: every session a test gets injected or creates from the
+   * injected KnowledgeBase reports activations, consequence times and fact changes, which are written to
+   * <code>testflux-rule-profile.json</code> and <code>testflux-rule-profile.csv</code> next to the metrics report.
+   * Defaults to <code>false</code>.
+   */
+  public static final String PARAMETER_PROFILE_RULES = "testflux.profile.rules";
+
+  private static final RuleProfileReport ruleProfiles = new RuleProfileReport();
+
+  /**
+   * Configuration property naming the file (relative to the rules root directory, if not absolute) holding the test
+   * durations of an earlier run. Tests much slower than their baseline are reported, and fail if their
+   * {@link PerformanceBudget} sets a maximum slowdown. The file is written at the end of the run if it does not exist
+   * yet. No baseline is used if this is not set.
+   */
+  public static final String PARAMETER_BASELINE_FILE = "testflux.baseline.file";
+
+  /**
+   * Configuration property giving the slowdown relative to the baseline beyond which a test is reported as slower.
+   * Defaults to <code>1.5</code>.
+   */
+  public static final String PARAMETER_BASELINE_TOLERANCE = "testflux.baseline.tolerance";
+
+  private static final double DEFAULT_BASELINE_TOLERANCE = 1.5;
+
+  /**
+   * Configuration property telling whether an existing baseline file is replaced by the durations of this run.
+   * Defaults to <code>false</code>.
+   */
+  public static final String PARAMETER_BASELINE_UPDATE = "testflux.baseline.update";
+
+  private static final FactFixtureCache factFixtures = new FactFixtureCache();
+
+  private static PerformanceBaseline baseline;
+  private static boolean baselineConfigured;
+
+  private KnowledgePackageCompiler compiler;
+
+  /**
+   * With <code>parallel="methods"</code>, several threads run test methods on the same test instance, so the instance
+   * field receives a proxy which forwards to the KnowledgeBase prepared for the calling thread.
+   */
+  private final ThreadBoundProxy<KnowledgeBase> threadBoundKnowledgeBase = new ThreadBoundProxy<KnowledgeBase>(KnowledgeBase.class);
+  private final ThreadBoundProxy<StatefulKnowledgeSession> threadBoundSession = new ThreadBoundProxy<StatefulKnowledgeSession>(StatefulKnowledgeSession.class);
+
+  private final ThreadLocal<BorrowedSession> borrowedSession = new ThreadLocal<BorrowedSession>();
+  private final ThreadLocal<Long> testStartNanos = new ThreadLocal<Long>();
+  private final ThreadLocal<RuleFiringProfiler> ruleFiringProfiler = new ThreadLocal<RuleFiringProfiler>();
+  private final ThreadLocal<Long> testStartAllocatedBytes = new ThreadLocal<Long>();
+  private final ThreadLocal<List<CompilationUnit>> testCompilationUnits = new ThreadLocal<List<CompilationUnit>>();
+
+  private TestFluxConfiguration configuration;
 
   public DroolsRuleTestListener() {
     log.debug("Creating new instance of " + this.getClass().getName() + ".");
@@ -50,195 +218,414 @@ public class DroolsRuleTestListener implements ITestListener {
 
   @Override
   public void onTestStart(ITestResult result) {
-    testResult.set(result);
     final Class<?> realTestClass = obtainJavaTestClass(result);
     final Method realTestMethod = obtainJavaTestMethod(result);
+    final boolean runningMethodsInParallel = isRunningMethodsInParallel(result);
+
+    final InjectionPlan injectionPlan = InjectionPlan.forClass(realTestClass);
+    final PerformanceBudget budget = determinePerformanceBudget(realTestMethod, realTestClass);
+    final boolean budgetNeedsProfiler = budget != null && (budget.maxFireAllRulesMillis() >= 0 || budget.maxActivations() >= 0);
+    final RuleFiringProfiler profiler = budgetNeedsProfiler || isProfilingRules(result) ? new RuleFiringProfiler() : null;
+    testCompilationUnits.set(new ArrayList<CompilationUnit>());
+    KnowledgeBase knowledgeBaseForMethod;
+    if (!injectionPlan.acceptsKnowledgeSession()) {
+      if (!determineFacts(realTestMethod, realTestClass).isEmpty()) {
+        throw new TestFluxException("Test " + testName(result) + " uses @" + Facts.class.getSimpleName() + ", but has no " +
+                                    StatefulKnowledgeSession.class.getSimpleName() + " injected to insert them into.");
+      }
+      final KnowledgeBaseSharing sharing = determineKnowledgeBaseSharing(realTestClass, result);
+      if (sharing == KnowledgeBaseSharing.METHOD) {
+        KnowledgeBase knowledgeBaseForClass = createNewKnowledgeBaseInstanceForClass(realTestClass, resolveClassRules(realTestClass, result), result);
+        knowledgeBaseForMethod = completeKnowledgeBaseForMethod(knowledgeBaseForClass, resolveMethodRules(realTestMethod, realTestClass, result),
+                                                                realTestClass, result);
+      }
+      else {
+        knowledgeBaseForMethod = CopyOnWriteKnowledgeBase.wrap(obtainSharedKnowledgeBase(sharing, realTestClass, realTestMethod, result));
+      }
+    }
+    else {
+      BorrowedSession session = borrowKnowledgeSession(realTestClass, realTestMethod, result);
+      borrowedSession.set(session);
+      knowledgeBaseForMethod = CopyOnWriteKnowledgeBase.wrap(session.pool.getKnowledgeBase());
+      final StatefulKnowledgeSession sessionForMethod = profiler == null ? session.session : ProfilingSession.wrap(session.session, StatefulKnowledgeSession.class, profiler);
+      final long injectionStart = System.nanoTime();
+      if (runningMethodsInParallel) {
+        threadBoundSession.bind(sessionForMethod);
+        injectionPlan.injectKnowledgeSession(result.getInstance(), threadBoundSession.getProxy());
+      }
+      else {
+        injectionPlan.injectKnowledgeSession(result.getInstance(), sessionForMethod);
+      }
+      metrics.recordPhase(realTestClass.getName(), Phase.INJECTION, System.nanoTime() - injectionStart);
+      insertFacts(session.session, realTestMethod, realTestClass, result);
+      if (profiler != null) {
+        profiler.attachTo(session.session);
+      }
+    }
 
-    KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
-    KnowledgeBase knowledgeBaseForClass = createNewKnowledgeBaseInstanceForClass(realTestClass, knowledgeBuilder);
-    KnowledgeBase knowledgeBaseForMethod = completeKnowledgeBaseForMethod(knowledgeBaseForClass, realTestMethod, knowledgeBaseForClass);
+    if (profiler != null) {
+      ruleFiringProfiler.set(profiler);
+      knowledgeBaseForMethod = ProfilingKnowledgeBase.wrap(knowledgeBaseForMethod, profiler);
+    }
 
-    knowledgeBaseForMethod.addKnowledgePackages(knowledgeBuilder.getKnowledgePackages());
+    final long injectionStart = System.nanoTime();
+    if (runningMethodsInParallel) {
+      threadBoundKnowledgeBase.bind(knowledgeBaseForMethod);
+      injectionPlan.injectKnowledgeBase(result.getInstance(), threadBoundKnowledgeBase.getProxy());
+    }
+    else {
+      injectionPlan.injectKnowledgeBase(result.getInstance(), knowledgeBaseForMethod);
+    }
+    metrics.recordPhase(realTestClass.getName(), Phase.INJECTION, System.nanoTime() - injectionStart);
+    testStartAllocatedBytes.set(AllocationMeter.currentThreadAllocatedBytes());
+    testStartNanos.set(System.nanoTime());
+  }
 
-    injectKnowledgeBase(realTestClass, result.getInstance(), knowledgeBaseForMethod, result);
+  /**
+   * Inserts the facts of the class, then those of the method. The rule firing profiler is attached only afterwards, so
+   * inserting them and the activations they create do not count towards the {@link PerformanceBudget} of the test.
+   */
+  private void insertFacts(StatefulKnowledgeSession session, Method realTestMethod, Class<?> realTestClass, ITestResult result) {
+    final List<Facts> classFacts = factsOf(realTestClass.getAnnotation(FactFiles.class), realTestClass.getAnnotation(Facts.class));
+    final List<Facts> methodFacts = factsOf(realTestMethod.getAnnotation(FactFiles.class), realTestMethod.getAnnotation(Facts.class));
+    if (classFacts.isEmpty() && methodFacts.isEmpty()) {
+      return;
+    }
+    final long start = System.nanoTime();
+    final RulesBaseDirectory classBaseDirectory = realTestClass.getAnnotation(RulesBaseDirectory.class);
+    final RulesBaseDirectory methodBaseDirectory = realTestMethod.getAnnotation(RulesBaseDirectory.class);
+    insertFacts(session, classBaseDirectory, classFacts, result);
+    insertFacts(session, methodBaseDirectory == null ? classBaseDirectory : methodBaseDirectory, methodFacts, result);
+    metrics.recordPhase(realTestClass.getName(), Phase.FACTS, System.nanoTime() - start);
   }
 
-  private void injectKnowledgeBase(Class<?> realTestClass, Object testInstance, KnowledgeBase knowledgeBaseForMethod, ITestResult result) {
-    List<Field> matchingFields = findFieldsToInjectKnowledgeBaseInto(realTestClass);
-    for (Field matchingField : matchingFields) {
-      injectIntoField(matchingField, testInstance, knowledgeBaseForMethod, result);
+  private void insertFacts(StatefulKnowledgeSession session, RulesBaseDirectory rulesBaseDirectory, List<Facts> facts, ITestResult result) {
+    final RuleSourceResolver resolver = new RuleSourceResolver(determineRulesRootDirectory(result), directoryScanner);
+    for (Facts factFile : facts) {
+      final File file = resolver.resolveFile(rulesBaseDirectory, factFile.file());
+      factFixtures.obtain(file, factFile.type(), factFile.separator()).insertInto(session, factFile.batchSize());
     }
   }
 
-  private void injectIntoField(Field matchingField, Object testInstance, KnowledgeBase knowledgeBaseForMethod, ITestResult result) {
-    matchingField.setAccessible(true);
-    try {
-      matchingField.set(testInstance, knowledgeBaseForMethod);
+  private List<Facts> determineFacts(Method realTestMethod, Class<?> realTestClass) {
+    List<Facts> facts = new ArrayList<Facts>(factsOf(realTestClass.getAnnotation(FactFiles.class), realTestClass.getAnnotation(Facts.class)));
+    facts.addAll(factsOf(realTestMethod.getAnnotation(FactFiles.class), realTestMethod.getAnnotation(Facts.class)));
+    return facts;
+  }
+
+  private static List<Facts> factsOf(FactFiles factFiles, Facts facts) {
+    List<Facts> allFacts = new ArrayList<Facts>();
+    if (factFiles != null) {
+      allFacts.addAll(Arrays.asList(factFiles.value()));
     }
-    catch (IllegalAccessException iae) {
-      throw new TestFluxException("Error injecting KnowledgeBase into " + result.getTestClass().getName() + "." + matchingField.getName());
+    if (facts != null) {
+      allFacts.add(facts);
     }
+    return allFacts;
   }
 
-  private List<Field> findFieldsToInjectKnowledgeBaseInto(Class<?> realTestClass) {
-    final Field[] declaredFields = realTestClass.getDeclaredFields();
-    List<Field> matchingFields = new ArrayList<Field>();
-    for (Field declaredField : declaredFields) {
-      if (canAcceptKnowledgeBase(declaredField)) {
-        matchingFields.add(declaredField);
-      }
-    }
-    return matchingFields;
+  private boolean isProfilingRules(ITestResult result) {
+    return configuration(result).getBoolean(PARAMETER_PROFILE_RULES, false);
+  }
+
+  private PerformanceBudget determinePerformanceBudget(Method realTestMethod, Class<?> realTestClass) {
+    final PerformanceBudget methodBudget = realTestMethod.getAnnotation(PerformanceBudget.class);
+    return methodBudget != null ? methodBudget : realTestClass.getAnnotation(PerformanceBudget.class);
   }
 
-  private boolean canAcceptKnowledgeBase(Field declaredField) {
-    if (declaredField.getAnnotation(NoInjection.class) != null) {
-      return false;
+  private boolean isRunningMethodsInParallel(ITestResult result) {
+    final String parallel = result.getTestClass().getXmlTest().getParallel();
+    return "methods".equals(parallel) || "true".equals(parallel);
+  }
+
+  /**
+   * Stops measuring the test. Measuring it again does nothing.
+   *
+   * @return what the test used, for checking its {@link PerformanceBudget}.
+   */
+  private PerformanceBudgetVerifier.Measurement measureTest(ITestResult result) {
+    final long endNanos = System.nanoTime();
+    final long endAllocatedBytes = AllocationMeter.currentThreadAllocatedBytes();
+    long testNanos = 0;
+    final Long startNanos = testStartNanos.get();
+    if (startNanos != null) {
+      testStartNanos.remove();
+      testNanos = endNanos - startNanos;
+      metrics.recordPhase(obtainJavaTestClass(result).getName(), Phase.TEST, testNanos);
     }
-    if ( declaredField.getAnnotation(Inject.class) == null ) {
-      return false;
+    final Long startAllocatedBytes = testStartAllocatedBytes.get();
+    testStartAllocatedBytes.remove();
+    final long allocatedBytes = startAllocatedBytes == null || startAllocatedBytes < 0 || endAllocatedBytes < 0 ? -1 : endAllocatedBytes - startAllocatedBytes;
+    long compileNanos = 0;
+    final List<CompilationUnit> compilationUnits = testCompilationUnits.get();
+    if (compilationUnits != null) {
+      testCompilationUnits.remove();
+      for (CompilationUnit compilationUnit : compilationUnits) {
+        for (File file : compilationUnit.getFiles()) {
+          compileNanos += metrics.averageCompilationNanos(file);
+        }
+      }
     }
 
-    final Class<?> fieldType = declaredField.getType();
-    if (fieldType.isAssignableFrom(KnowledgeBase.class)) {
-      return true;
+    final RuleFiringProfiler profiler = ruleFiringProfiler.get();
+    if (profiler != null) {
+      ruleFiringProfiler.remove();
+      if (isProfilingRules(result)) {
+        ruleProfiles.record(testName(result), profiler);
+      }
     }
-    return false;
+    return new PerformanceBudgetVerifier.Measurement(testNanos / 1000000.0, compileNanos / 1000000.0, allocatedBytes, profiler);
   }
 
-  private KnowledgeBase completeKnowledgeBaseForMethod(KnowledgeBase knowledgeBaseForClass, Method realTestMethod, KnowledgeBase baseForClass) {
-    return knowledgeBaseForClass;
+  /**
+   * Measures the test, unless already done, and returns its session to the pool. TestNG reports the result of a test
+   * only after its <code>@AfterMethod</code> methods have run, so these may still use the injected session.
+   */
+  private void finishTest(ITestResult result) {
+    measureTest(result);
+    threadBoundKnowledgeBase.unbind();
+    threadBoundSession.unbind();
+    final BorrowedSession session = borrowedSession.get();
+    if (session != null) {
+      borrowedSession.remove();
+      session.pool.returnSession(session.session);
+    }
   }
 
-  private KnowledgeBase createNewKnowledgeBaseInstanceForClass(Class<?> realTestClass, KnowledgeBuilder knowledgeBuilder) {
-    final CompileRules compileRulesAnnotation = realTestClass.getAnnotation(CompileRules.class);
-    final RulesBaseDirectory rulesBaseDirectory = realTestClass.getAnnotation(RulesBaseDirectory.class);
-    KnowledgeBase knowledgeBaseForClass = knowledgeBuilder.newKnowledgeBase();
-    for (RuleSource ruleSource : compileRulesAnnotation.value()) {
-      addToKnowledgeBase(rulesBaseDirectory, ruleSource, knowledgeBuilder);
-    }
-    return knowledgeBaseForClass;
+  private String testName(ITestResult result) {
+    return result.getTestClass().getName() + "." + result.getMethod().getMethodName();
   }
 
-  private void addToKnowledgeBase(RulesBaseDirectory rulesBaseDirectory, RuleSource ruleSource, KnowledgeBuilder knowledgeBuilder) {
-    boolean isForDirectory = isValueAvailable(ruleSource.directory());
-    boolean isForIndividualFile = isValueAvailable(ruleSource.file());
-    boolean conflict = isForDirectory && isForIndividualFile;
-    if (conflict) {
-      throw new TestFluxException("@" + RuleSource.class.getSimpleName() + " cannot be used to specify both directory '" + ruleSource.directory() + "'" +
-                                  " and file '" + ruleSource.file() + "' at the same time.");
+  /**
+   * Fails the (so far successful) test if it exceeded its {@link PerformanceBudget} or, with a baseline, got slower than
+   * its budget allows.
+   */
+  private void verifyPerformance(ITestResult result, PerformanceBudgetVerifier.Measurement measurement) {
+    final PerformanceBudget budget = determinePerformanceBudget(obtainJavaTestMethod(result), obtainJavaTestClass(result));
+    final PerformanceBaseline performanceBaseline = obtainBaseline(result);
+    if (budget == null && performanceBaseline == null) {
+      return;
     }
-
-    if (isForDirectory) {
-      addAllFilesFromDirectory(knowledgeBuilder, ruleSource.directory(), rulesBaseDirectory);
+    if (budget != null && budget.maxAllocatedBytes() >= 0 && !AllocationMeter.isSupported()) {
+      log.debug("Cannot check allocation budget of " + testName(result) + ", this JVM does not measure allocations per thread.");
+    }
+    final double tolerance = configuration(result).getDouble(PARAMETER_BASELINE_TOLERANCE, DEFAULT_BASELINE_TOLERANCE);
+    List<String> warnings = new ArrayList<String>();
+    final List<String> violations = new PerformanceBudgetVerifier(performanceBaseline, tolerance).verify(testName(result), budget, measurement, warnings);
+    for (String warning : warnings) {
+      log.warn(warning);
     }
-    else if (isForIndividualFile) {
-      addIndividualFileFromBaseDirectory(knowledgeBuilder, ruleSource.file(), rulesBaseDirectory);
+    if (!violations.isEmpty()) {
+      StringBuilder message = new StringBuilder("Test " + testName(result) + " exceeded its performance budget:");
+      for (String violation : violations) {
+        message.append("\n  ").append(violation);
+      }
+      result.setStatus(ITestResult.FAILURE);
+      result.setThrowable(new AssertionError(message.toString()));
     }
   }
 
-  private void addAllFilesFromDirectory(KnowledgeBuilder knowledgeBuilder, String directoryName, RulesBaseDirectory ruleBaseDirectory) {
-    String baseDirectory = determineBaseDirectory(ruleBaseDirectory);
-    File directory = fileFromBaseDirectory(directoryName, baseDirectory);
+  private PerformanceBaseline obtainBaseline(ITestResult result) {
+    synchronized (DroolsRuleTestListener.class) {
+      if (!baselineConfigured) {
+        baselineConfigured = true;
+        final String baselineFile = configuration(result).getString(PARAMETER_BASELINE_FILE, null);
+        if (baselineFile != null && baselineFile.trim().length() > 0) {
+          File file = new File(baselineFile.trim());
+          if (!file.isAbsolute()) {
+            file = new File(determineRulesRootDirectory(result), baselineFile.trim());
+          }
+          baseline = new PerformanceBaseline(file);
+        }
+      }
+      return baseline;
+    }
+  }
 
-    if (!directory.exists()) {
-      throw new TestFluxException("Directory " + directory.getAbsolutePath() + " given by @" + RuleSource.class.getSimpleName() + " must exist (but does not).");
+  private void writeBaseline(ITestContext context) {
+    final PerformanceBaseline performanceBaseline;
+    synchronized (DroolsRuleTestListener.class) {
+      performanceBaseline = baseline;
     }
-    if (!directory.isDirectory()) {
-      throw new TestFluxException("Directory " + directory.getAbsolutePath() + " given by @" + RuleSource.class.getSimpleName() + " must denote a directory (but does not).");
+    if (performanceBaseline == null) {
+      return;
+    }
+    if (performanceBaseline.exists() && !configuration(context.getSuite().getXmlSuite()).getBoolean(PARAMETER_BASELINE_UPDATE, false)) {
+      return;
     }
-
-    Iterator<File> fileIterator = null;
     try {
-      fileIterator = FileUtils.iterateFiles(directory, new String[] {"drl"}, false);
+      performanceBaseline.write();
     }
-    catch (Throwable t) {
-      throw new TestFluxException("Caught " + t.getClass().getSimpleName() + ": " + t.getMessage());
+    catch (IOException e) {
+      log.warn("Cannot write performance baseline " + performanceBaseline.getFile().getAbsolutePath() + ": " + e.getMessage());
     }
+  }
 
-    for (File file : IterableAdapter.makeFrom(fileIterator)) {
-      addIndividualFile(knowledgeBuilder, file);
+  private KnowledgeBaseSharing determineKnowledgeBaseSharing(Class<?> realTestClass, ITestResult result) {
+    final ShareKnowledgeBase shareKnowledgeBase = realTestClass.getAnnotation(ShareKnowledgeBase.class);
+    if (shareKnowledgeBase != null) {
+      return shareKnowledgeBase.value();
     }
+    return configuration(result).getEnum(PARAMETER_KNOWLEDGE_BASE_SHARING, KnowledgeBaseSharing.class, KnowledgeBaseSharing.METHOD);
   }
 
-  private String determineBaseDirectory(RulesBaseDirectory ruleBaseDirectory) {
-    String baseDirectory = null;
-    if (ruleBaseDirectory != null) {
-      baseDirectory = ruleBaseDirectory.value();
-    }
-    else {
-      baseDirectory = "src" + File.separator + "main" + File.separator + "rules";
-    }
-    final String rulesRootDirectory = testResult.get().getTestClass().getXmlTest().getSuite().getParameter("rulesRootDirectory");
-    return rulesRootDirectory + File.separator + baseDirectory;
+  /**
+   * Shared KnowledgeBases contain class and method rules, so test methods with different method rules never share one.
+   * The rules are resolved once, for the key and for building the KnowledgeBase.
+   */
+  private KnowledgeBase obtainSharedKnowledgeBase(KnowledgeBaseSharing sharing, final Class<?> realTestClass, final Method realTestMethod, final ITestResult result) {
+    final List<CompilationUnit> classRules = resolveClassRules(realTestClass, result);
+    final List<CompilationUnit> methodRules = resolveMethodRules(realTestMethod, realTestClass, result);
+    List<CompilationUnit> compilationUnits = new ArrayList<CompilationUnit>(classRules);
+    compilationUnits.addAll(methodRules);
+    final String suiteName = sharing == KnowledgeBaseSharing.GLOBAL ? null : result.getTestClass().getXmlTest().getSuite().getName();
+    final String className = sharing == KnowledgeBaseSharing.CLASS ? realTestClass.getName() : null;
+    return sharedKnowledgeBases.obtain(suiteName, className, RuleSetKey.forUnits(compilationUnits), new Callable<KnowledgeBase>() {
+      @Override
+      public KnowledgeBase call() throws Exception {
+        KnowledgeBase knowledgeBaseForClass = createNewKnowledgeBaseInstanceForClass(realTestClass, classRules, result);
+        return completeKnowledgeBaseForMethod(knowledgeBaseForClass, methodRules, realTestClass, result);
+      }
+    });
   }
 
-  private void addIndividualFileFromBaseDirectory(KnowledgeBuilder knowledgeBuilder, String filename, RulesBaseDirectory rulesBaseDirectory) {
-    String baseDirectory = determineBaseDirectory(rulesBaseDirectory);
-    File file = fileFromBaseDirectory(filename, baseDirectory);
-    addIndividualFile(knowledgeBuilder, file);
+  /**
+   * Sessions come from a pool per rule set (class rules plus method rules), whose KnowledgeBase is shared by all tests
+   * borrowing from it. That KnowledgeBase is also the one injected (copy-on-write) into KnowledgeBase fields of the test.
+   */
+  private BorrowedSession borrowKnowledgeSession(Class<?> realTestClass, Method realTestMethod, ITestResult result) {
+    final List<CompilationUnit> classRules = resolveClassRules(realTestClass, result);
+    final List<CompilationUnit> methodRules = resolveMethodRules(realTestMethod, realTestClass, result);
+    List<CompilationUnit> compilationUnits = new ArrayList<CompilationUnit>(classRules);
+    compilationUnits.addAll(methodRules);
+    List<KnowledgePackage> knowledgePackages = new ArrayList<KnowledgePackage>(obtainPackages(classRules, result));
+    knowledgePackages.addAll(obtainPackages(methodRules, result));
+
+    final List<RuleSetKey> packageKeys = Arrays.asList(RuleSetKey.forUnits(classRules), RuleSetKey.forUnits(methodRules));
+    final String suiteName = result.getTestClass().getXmlTest().getSuite().getName();
+    final String testName = result.getTestClass().getName() + "." + result.getMethod().getMethodName();
+    final long start = System.nanoTime();
+    KnowledgeSessionPool pool = sessionPools.poolFor(RuleSetKey.forUnits(compilationUnits), suiteName, packageKeys, knowledgePackages,
+                                                     determineSessionPoolSize(result));
+    final StatefulKnowledgeSession session = pool.borrowSession(result.getTestClass().getXmlTest().getName(), testName);
+    metrics.recordPhase(realTestClass.getName(), Phase.ASSEMBLY, System.nanoTime() - start);
+    return new BorrowedSession(pool, session);
   }
 
-  private void addIndividualFile(KnowledgeBuilder knowledgeBuilder, File file) {
-    ensureFileExists(file);
-    ensureIsRegularFile(file);
-    addFileToKnowledgeBase(knowledgeBuilder, file);
-    handleKnowledgeBuilderErrors(knowledgeBuilder);
+  private int determineSessionPoolSize(ITestResult result) {
+    return configuration(result).getInt(PARAMETER_SESSION_POOL_SIZE, DEFAULT_SESSION_POOL_SIZE);
   }
 
-  private void handleKnowledgeBuilderErrors(KnowledgeBuilder knowledgeBuilder) {
-    if (knowledgeBuilder.hasErrors()) {
-      StringBuilder builder = new StringBuilder(1024);
-      builder.append("Drools " + knowledgeBuilder.getClass().getSimpleName() + " error occurred:");
-      for (KnowledgeBuilderError knowledgeBuilderError : knowledgeBuilder.getErrors()) {
-        builder.append("Error in line(s) [");
-        appendLinesTo(knowledgeBuilderError.getErrorLines(), builder);
-        builder.append("]:");
-        builder.append(knowledgeBuilderError.getMessage());
-      }
-      throw new TestFluxException(builder.toString());
+  /**
+   * Adds the rules given by a method level {@link CompileRules} annotation on top of the class rules. Both rule sets are
+   * compiled (and cached) separately, so method rules must not depend on functions or declared types from class rules.
+   */
+  private KnowledgeBase completeKnowledgeBaseForMethod(KnowledgeBase knowledgeBaseForClass, List<CompilationUnit> compilationUnits, Class<?> realTestClass,
+                                                     ITestResult result) {
+    if (!compilationUnits.isEmpty()) {
+      final Collection<KnowledgePackage> knowledgePackages = obtainPackages(compilationUnits, result);
+      final long start = System.nanoTime();
+      knowledgeBaseForClass.addKnowledgePackages(knowledgePackages);
+      metrics.recordPhase(realTestClass.getName(), Phase.ASSEMBLY, System.nanoTime() - start);
     }
+    return knowledgeBaseForClass;
   }
 
-  private void ensureIsRegularFile(File file) {
-    if (!file.isFile()) {
-      throw new TestFluxException("File " + file.getAbsolutePath() + " given by @" + RuleSource.class.getSimpleName() + " must denote a regular file (but does not).");
-    }
+  private KnowledgeBase createNewKnowledgeBaseInstanceForClass(Class<?> realTestClass, List<CompilationUnit> compilationUnits, ITestResult result) {
+    final Collection<KnowledgePackage> knowledgePackages = compilationUnits.isEmpty() ? Collections.<KnowledgePackage>emptyList() : obtainPackages(compilationUnits, result);
+    final long start = System.nanoTime();
+    KnowledgeBase knowledgeBaseForClass = KnowledgeBaseFactory.newKnowledgeBase();
+    knowledgeBaseForClass.addKnowledgePackages(knowledgePackages);
+    metrics.recordPhase(realTestClass.getName(), Phase.ASSEMBLY, System.nanoTime() - start);
+    return knowledgeBaseForClass;
   }
 
-  private void ensureFileExists(File file) {
-    if (!file.exists()) {
-      throw new TestFluxException("File " + file.getAbsolutePath() + " not found, although given by @" + RuleSource.class.getSimpleName() + " annotation");
+  private List<CompilationUnit> resolveClassRules(Class<?> realTestClass, ITestResult result) {
+    final CompileRules compileRulesAnnotation = realTestClass.getAnnotation(CompileRules.class);
+    if (compileRulesAnnotation == null) {
+      return Collections.emptyList();
     }
+    return resolve(realTestClass.getAnnotation(RulesBaseDirectory.class), compileRulesAnnotation, result);
   }
 
-  private File fileFromBaseDirectory(String filename, String baseDirectory) {
-    return new File(baseDirectory + File.separator + filename);
+  private List<CompilationUnit> resolveMethodRules(Method realTestMethod, Class<?> realTestClass, ITestResult result) {
+    final CompileRules compileRulesAnnotation = realTestMethod.getAnnotation(CompileRules.class);
+    if (compileRulesAnnotation == null) {
+      return Collections.emptyList();
+    }
+    RulesBaseDirectory rulesBaseDirectory = realTestMethod.getAnnotation(RulesBaseDirectory.class);
+    if (rulesBaseDirectory == null) {
+      rulesBaseDirectory = realTestClass.getAnnotation(RulesBaseDirectory.class);
+    }
+    return resolve(rulesBaseDirectory, compileRulesAnnotation, result);
   }
 
-  private void addFileToKnowledgeBase(KnowledgeBuilder knowledgeBuilder, File file) {
-    try {
-      knowledgeBuilder.add(ResourceFactory.newFileResource(file), ResourceType.DRL);
+  private List<CompilationUnit> resolve(RulesBaseDirectory rulesBaseDirectory, CompileRules compileRulesAnnotation, ITestResult result) {
+    final long start = System.nanoTime();
+    RuleSourceResolver resolver = new RuleSourceResolver(determineRulesRootDirectory(result), directoryScanner);
+    final List<CompilationUnit> compilationUnits = resolver.resolve(rulesBaseDirectory, compileRulesAnnotation.value());
+    ruleUsage.recordUsage(obtainJavaTestClass(result), compilationUnits);
+    final List<CompilationUnit> unitsOfTest = testCompilationUnits.get();
+    if (unitsOfTest != null) {
+      unitsOfTest.addAll(compilationUnits);
     }
-    catch (Throwable t) {
-      throw new TestFluxException("Exception occurred while adding file " + file.getAbsolutePath() + " to knowledge base: " + t.getMessage());
+    metrics.recordPhase(obtainJavaTestClass(result).getName(), Phase.DISCOVERY, System.nanoTime() - start);
+    return compilationUnits;
+  }
+
+  private Collection<KnowledgePackage> obtainPackages(List<CompilationUnit> compilationUnits, ITestResult result) {
+    final long start = System.nanoTime();
+    final Collection<KnowledgePackage> knowledgePackages = packageCache.obtainPackages(compilationUnits, obtainCompiler(result));
+    metrics.recordPhase(obtainJavaTestClass(result).getName(), Phase.COMPILATION, System.nanoTime() - start);
+    return knowledgePackages;
+  }
+
+  /**
+   * The rule files used by the test classes run so far in this JVM (see {@link WatchModeRunner}).
+   */
+  static RuleUsageRegistry ruleUsage() {
+    return ruleUsage;
+  }
+
+  private String determineRulesRootDirectory(ITestResult result) {
+    return configuration(result).getRulesRootDirectory();
+  }
+
+  private synchronized KnowledgePackageCompiler obtainCompiler(ITestResult result) {
+    if (compiler == null) {
+      compiler = new KnowledgePackageCompiler(configuration(result).getInt(PARAMETER_COMPILE_THREADS, 1), createPackageStore(result), metrics);
     }
+    return compiler;
   }
 
-  private void appendLinesTo(int[] errorLines, StringBuilder appendToMe) {
-    final int numberOfLines = errorLines.length;
-    if (numberOfLines == 1) {
-      appendToMe.append(errorLines[0]);
-      return;
+  private PersistentPackageStore createPackageStore(ITestResult result) {
+    final String cacheDirectory = configuration(result).getString(PARAMETER_CACHE_DIRECTORY, DEFAULT_CACHE_DIRECTORY);
+    if ("".equals(cacheDirectory.trim())) {
+      return null;
     }
-    for (int i = 1; i < numberOfLines; i++) {
-      appendToMe.append(",");
-      appendToMe.append(errorLines[i]);
+    File directory = new File(cacheDirectory.trim());
+    if (!directory.isAbsolute()) {
+      directory = new File(determineRulesRootDirectory(result), cacheDirectory.trim());
     }
+    return new PersistentPackageStore(directory, ClasspathFingerprint.compute(ClasspathFingerprint.systemClasspath()));
   }
 
-  private boolean isValueAvailable(String fileOrDirectoryName) {
-    return (fileOrDirectoryName != null) && (!"".equals(fileOrDirectoryName));
+  private TestFluxConfiguration configuration(ITestResult result) {
+    return configuration(result.getTestClass().getXmlTest().getSuite());
+  }
+
+  /**
+   * The configuration is read when the listener is first used and then kept for all suites it runs in.
+   */
+  private synchronized TestFluxConfiguration configuration(XmlSuite suite) {
+    if (configuration == null) {
+      configuration = new TestFluxConfiguration(suite.getParameters());
+      packageCache.configure(configuration.getInt(PARAMETER_CACHE_MAX_ENTRIES, 0),
+                             configuration.getLong(PARAMETER_CACHE_MAX_BYTES, Runtime.getRuntime().maxMemory() / 4),
+                             configuration.getEnum(PARAMETER_CACHE_EVICTION, KnowledgePackageCache.Eviction.class, KnowledgePackageCache.Eviction.LRU),
+                             configuration.getBoolean(PARAMETER_CACHE_SOFT_REFERENCES, true));
+    }
+    return configuration;
   }
 
   private Class<?> obtainJavaTestClass(ITestResult result) {
@@ -249,27 +636,127 @@ public class DroolsRuleTestListener implements ITestListener {
     return result.getMethod().getMethod();
   }
 
+  @Override
+  public void beforeInvocation(IInvokedMethod method, ITestResult result) {
+  }
+
+  /**
+   * Measures the test and checks its {@link PerformanceBudget} right after the test method returned. TestNG has not
+   * decided on the outcome of the test yet at this point, so a test exceeding its budget is reported as failed to all
+   * listeners and reporters.
+   */
+  @Override
+  public void afterInvocation(IInvokedMethod method, ITestResult result) {
+    if (!method.isTestMethod()) {
+      return;
+    }
+    final PerformanceBudgetVerifier.Measurement measurement = measureTest(result);
+    if (result.getThrowable() == null) {
+      verifyPerformance(result, measurement);
+    }
+  }
+
   @Override
   public void onTestSuccess(ITestResult result) {
+    finishTest(result);
   }
 
   @Override
   public void onTestFailure(ITestResult result) {
+    finishTest(result);
   }
 
   @Override
   public void onTestSkipped(ITestResult result) {
+    finishTest(result);
   }
 
   @Override
   public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+    finishTest(result);
   }
 
   @Override
   public void onStart(ITestContext context) {
   }
 
+  @Override
+  public void onStart(ISuite suite) {
+  }
+
+  @Override
+  public void onFinish(ISuite suite) {
+    sharedKnowledgeBases.releaseSuite(suite.getName());
+    sessionPools.releaseSuite(suite.getName());
+    shutdownCompiler();
+  }
+
+  private synchronized void shutdownCompiler() {
+    if (compiler != null) {
+      compiler.shutdown();
+    }
+  }
+
   @Override
   public void onFinish(ITestContext context) {
+    for (String leakingTest : sessionPools.disposeLeakedSessions(context.getName())) {
+      log.warn("Test " + leakingTest + " did not finish normally, disposed the session borrowed for it.");
+    }
+    writeMetricsReport(context);
+    writeBaseline(context);
+  }
+
+  private void writeMetricsReport(ITestContext context) {
+    final TestFluxConfiguration configuration = configuration(context.getSuite().getXmlSuite());
+    File directory = new File(configuration.getString(PARAMETER_METRICS_DIRECTORY, context.getOutputDirectory()));
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      log.warn("Cannot create metrics directory " + directory.getAbsolutePath() + ", not writing metrics report.");
+      return;
+    }
+    try {
+      metrics.writeJson(new File(directory, "testflux-metrics.json"));
+      metrics.writeCsv(new File(directory, "testflux-metrics.csv"));
+      if (!ruleProfiles.isEmpty()) {
+        ruleProfiles.writeJson(new File(directory, "testflux-rule-profile.json"));
+        ruleProfiles.writeCsv(new File(directory, "testflux-rule-profile.csv"));
+      }
+    }
+    catch (IOException e) {
+      log.warn("Cannot write metrics report to " + directory.getAbsolutePath() + ": " + e.getMessage());
+    }
+
+    log.info(String.format(Locale.ENGLISH, "Rule cache: %d hits, %d misses, %d evictions, %.1f MB of compiled packages retained.",
+                           metrics.getCacheHits(TestFluxMetrics.Cache.MEMORY), metrics.getCacheMisses(TestFluxMetrics.Cache.MEMORY),
+                           metrics.getCacheEvictions(TestFluxMetrics.Cache.MEMORY), metrics.getCacheBytes(TestFluxMetrics.Cache.MEMORY) / (1024.0 * 1024.0)));
+
+    final List<Map.Entry<String, TestFluxMetrics.Timing>> slowestRuleFiles = metrics.slowestRuleFiles(configuration.getInt(PARAMETER_METRICS_TOP, DEFAULT_METRICS_TOP));
+    if (!slowestRuleFiles.isEmpty()) {
+      StringBuilder summary = new StringBuilder("Slowest rule files to compile:");
+      for (Map.Entry<String, TestFluxMetrics.Timing> ruleFile : slowestRuleFiles) {
+        summary.append(String.format(Locale.ENGLISH, "%n  %10.1f ms (%d compilations) %s", ruleFile.getValue().getTotalMillis(), ruleFile.getValue().getCount(), ruleFile.getKey()));
+      }
+      log.info(summary.toString());
+    }
+
+    final List<Map.Entry<String, RuleFiringProfiler.RuleStatistics>> mostFiredRules = ruleProfiles.mostFiredRules(configuration.getInt(PARAMETER_METRICS_TOP, DEFAULT_METRICS_TOP));
+    if (!mostFiredRules.isEmpty()) {
+      StringBuilder summary = new StringBuilder("Most frequently fired rules:");
+      for (Map.Entry<String, RuleFiringProfiler.RuleStatistics> rule : mostFiredRules) {
+        summary.append(String.format(Locale.ENGLISH, "%n  %8d fired, %8d created, %8d cancelled, %10.1f ms RHS  %s", rule.getValue().getFired(), rule.getValue().getCreated(),
+                                     rule.getValue().getCancelled(), rule.getValue().getRhsMillis(), rule.getKey()));
+      }
+      log.info(summary.toString());
+    }
+  }
+
+  private static class BorrowedSession {
+
+    private final KnowledgeSessionPool pool;
+    private final StatefulKnowledgeSession session;
+
+    public BorrowedSession(KnowledgeSessionPool pool, StatefulKnowledgeSession session) {
+      this.pool = pool;
+      this.session = session;
+    }
   }
 }
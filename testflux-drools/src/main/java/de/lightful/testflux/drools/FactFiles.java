@@ -0,0 +1,32 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Inserts the records of several fact files, in the given order (see {@link Facts}).
+ */
+@Retention(RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface FactFiles {
+  Facts[] value();
+}
@@ -0,0 +1,65 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Inserts the records of a CSV or JSON file as facts into the {@link org.drools.runtime.StatefulKnowledgeSession}
+ * injected into the test, before the test method runs. Facts given on the class are inserted before those given on the
+ * method. Use {@link FactFiles} for several files.
+ * <p/>
+ * Each record becomes an instance of {@link #type()}, created through its no-argument constructor. Its properties are
+ * set through setters or fields named like the CSV column or JSON key; values are converted to the property type with
+ * a static <code>valueOf(String)</code> method or a <code>String</code> constructor of that type (this covers
+ * primitives, their wrappers, <code>BigDecimal</code> and enums). Empty values leave the property untouched: empty CSV
+ * values as well as JSON <code>null</code> and <code>""</code>, so an empty string cannot be set from a fact file.
+ * <p/>
+ * Parsed files are kept for all tests of the JVM, so each file is read only once (unless it changes). Every test gets
+ * new fact instances, with new instances of mutable property values, so facts modified by one test do not leak into
+ * another.
+ */
+@Retention(RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Facts {
+
+  /**
+   * The fact file, relative to the {@link RulesBaseDirectory} of the test. Files ending in <code>.csv</code> hold a
+   * header line naming the properties, followed by one record per line. Files ending in <code>.json</code> hold an
+   * array of flat objects, files ending in <code>.jsonl</code> or <code>.ndjson</code> one flat object per line.
+   */
+  String file();
+
+  /**
+   * The class the records are turned into.
+   */
+  Class<?> type();
+
+  /**
+   * Separator of the values in CSV files.
+   */
+  char separator() default ',';
+
+  /**
+   * Number of facts inserted into the session with one command.
+   */
+  int batchSize() default 1000;
+}
@@ -0,0 +1,47 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+/**
+ * How widely the KnowledgeBase built for a test is shared with other tests using the same rule files.
+ * <p/>
+ * Shared KnowledgeBases are injected behind a copy-on-write proxy: a test adding or removing packages, rules,
+ * functions, processes or event listeners works on its own copy from that point on, without affecting other tests.
+ * Sessions created from a shared KnowledgeBase stay registered with it until they are disposed.
+ */
+public enum KnowledgeBaseSharing {
+
+  /**
+   * Every test method gets a KnowledgeBase of its own.
+   */
+  METHOD,
+
+  /**
+   * Test methods of the same test class share a KnowledgeBase.
+   */
+  CLASS,
+
+  /**
+   * All test classes in a suite share a KnowledgeBase.
+   */
+  SUITE,
+
+  /**
+   * All tests run in this JVM share a KnowledgeBase.
+   */
+  GLOBAL
+}
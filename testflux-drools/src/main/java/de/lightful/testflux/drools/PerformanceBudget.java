@@ -0,0 +1,61 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Makes a test fail when it exceeds the given budgets, even if all its assertions hold. Checked by the
+ * {@link DroolsRuleTestListener} after the test succeeded. On a method, it replaces the annotation of the class.
+ * Negative values (the default) mean no budget.
+ */
+@Retention(RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface PerformanceBudget {
+
+  /**
+   * Maximum time compiling the test's rule files takes, as measured when they were compiled in this JVM. Rule files
+   * loaded from the persistent cache count as zero.
+   */
+  long maxCompileMillis() default -1;
+
+  /**
+   * Maximum time spent in <code>fireAllRules</code> (and <code>execute</code>) of the sessions used by the test.
+   */
+  long maxFireAllRulesMillis() default -1;
+
+  /**
+   * Maximum number of activations fired in the sessions used by the test.
+   */
+  long maxActivations() default -1;
+
+  /**
+   * Maximum number of bytes allocated by the test thread while running the test method. Ignored on JVMs which cannot
+   * measure allocations per thread.
+   */
+  long maxAllocatedBytes() default -1;
+
+  /**
+   * Maximum duration of the test method relative to its duration in the baseline file (see
+   * {@link DroolsRuleTestListener#PARAMETER_BASELINE_FILE}), e.g. <code>1.5</code> for at most 50% slower.
+   */
+  double maxSlowdown() default -1;
+}
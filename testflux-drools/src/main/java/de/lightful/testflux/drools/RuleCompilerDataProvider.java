@@ -16,13 +16,86 @@
 
 package de.lightful.testflux.drools;
 
+import de.lightful.testflux.drools.impl.CompilationUnit;
+import de.lightful.testflux.drools.impl.KnowledgePackageCompiler;
+import de.lightful.testflux.drools.impl.RuleSourceResolver;
+import de.lightful.testflux.drools.impl.TestFluxConfiguration;
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.testng.ITestContext;
+import org.testng.annotations.DataProvider;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * TestNG data provider yielding one KnowledgeBase per {@link RuleSource} of the test method's {@link RuleVariants}
+ * annotation (or the test class' annotation, if the method has none). Each variant is compiled only when TestNG asks
+ * for it, and nothing is cached, so a sweep over many rule variants holds only the current one on the heap.
+ * <p/>
+ * Usage: <code>@Test(dataProvider = RuleCompilerDataProvider.NAME, dataProviderClass = RuleCompilerDataProvider.class)</code>
+ * on a method taking a single {@link KnowledgeBase} parameter.
+ */
 public class RuleCompilerDataProvider {
 
+  public static final String NAME = "compileRules";
+
   /**
    * Creates a KnowledgeBase from rule files and returns it.
    */
-  public static Object[][] compileRules() {
-    return new Object[][]{};
+  @DataProvider(name = NAME)
+  public static Iterator<Object[]> compileRules(Method testMethod, ITestContext context) {
+    RuleVariants ruleVariants = testMethod.getAnnotation(RuleVariants.class);
+    if (ruleVariants == null) {
+      ruleVariants = testMethod.getDeclaringClass().getAnnotation(RuleVariants.class);
+    }
+    if (ruleVariants == null) {
+      return Collections.<Object[]>emptyList().iterator();
+    }
+    RulesBaseDirectory rulesBaseDirectory = testMethod.getAnnotation(RulesBaseDirectory.class);
+    if (rulesBaseDirectory == null) {
+      rulesBaseDirectory = testMethod.getDeclaringClass().getAnnotation(RulesBaseDirectory.class);
+    }
+    final TestFluxConfiguration configuration = new TestFluxConfiguration(context.getSuite().getXmlSuite().getParameters());
+    final RuleSourceResolver resolver = new RuleSourceResolver(configuration.getRulesRootDirectory());
+    return new CompilingIterator(resolver, rulesBaseDirectory, ruleVariants.value());
   }
 
+  private static class CompilingIterator implements Iterator<Object[]> {
+
+    private final KnowledgePackageCompiler compiler = new KnowledgePackageCompiler();
+    private final RuleSourceResolver resolver;
+    private final RulesBaseDirectory rulesBaseDirectory;
+    private final RuleSource[] ruleSources;
+    private int nextVariant = 0;
+
+    public CompilingIterator(RuleSourceResolver resolver, RulesBaseDirectory rulesBaseDirectory, RuleSource[] ruleSources) {
+      this.resolver = resolver;
+      this.rulesBaseDirectory = rulesBaseDirectory;
+      this.ruleSources = ruleSources;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextVariant < ruleSources.length;
+    }
+
+    @Override
+    public Object[] next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final CompilationUnit compilationUnit = resolver.resolve(rulesBaseDirectory, ruleSources[nextVariant++]);
+      KnowledgeBase knowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+      knowledgeBase.addKnowledgePackages(compiler.compile(Collections.singletonList(compilationUnit)));
+      return new Object[] {knowledgeBase};
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -0,0 +1,87 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import java.io.File;
+
+/**
+ * The kind of rule resource a {@link RuleSource} denotes.
+ */
+public enum RuleResourceType {
+
+  /**
+   * Determine the type of every file from its extension. Files with an unknown extension are compiled as DRL.
+   */
+  AUTO,
+
+  /**
+   * Technical rule language.
+   */
+  DRL("drl"),
+
+  /**
+   * Domain specific language definition. DSL files are handed to the compiler before all other files of the same
+   * {@link RuleSource}, so DSLR files next to them can use them.
+   */
+  DSL("dsl"),
+
+  /**
+   * Rules written in a domain specific language.
+   */
+  DSLR("dslr"),
+
+  /**
+   * Decision table in an Excel spreadsheet.
+   */
+  XLS("xls"),
+
+  /**
+   * Decision table in a CSV file.
+   */
+  CSV("csv"),
+
+  /**
+   * Serialized, precompiled knowledge package. Packages are added as they are, without compiling anything.
+   */
+  PKG("pkg");
+
+  private final String extension;
+
+  RuleResourceType() {
+    this(null);
+  }
+
+  RuleResourceType(String extension) {
+    this.extension = extension;
+  }
+
+  /**
+   * @return this type, or the type matching the extension of <code>file</code> if this type is {@link #AUTO}.
+   */
+  public RuleResourceType resolveFor(File file) {
+    if (this != AUTO) {
+      return this;
+    }
+    final String fileName = file.getName().toLowerCase();
+    for (RuleResourceType type : values()) {
+      if (type.extension != null && fileName.endsWith("." + type.extension)) {
+        return type;
+      }
+    }
+    return DRL;
+  }
+}
@@ -25,4 +25,27 @@ import java.lang.annotation.Target;
 public @interface RuleSource {
   String directory() default "";
   String file() default "";
+
+  /**
+   * Whether subdirectories of {@link #directory()} are scanned, too.
+   */
+  boolean recursive() default false;
+
+  /**
+   * Glob patterns selecting the files of {@link #directory()} to compile. Patterns without a <code>/</code> are matched
+   * against file names, others against the path relative to the directory (<code>**</code> spans directories).
+   * Defaults to all DRL, DSL, DSLR, Excel decision table and precompiled package files. CSV decision tables must be
+   * included explicitly, as CSV files in rule directories often hold test data instead.
+   */
+  String[] includes() default {"*.drl", "*.dsl", "*.dslr", "*.xls", "*.pkg"};
+
+  /**
+   * Glob patterns (see {@link #includes()}) of files in {@link #directory()} not to compile.
+   */
+  String[] excludes() default {};
+
+  /**
+   * The type of the rule files. By default, it is determined per file from its extension.
+   */
+  RuleResourceType type() default RuleResourceType.AUTO;
 }
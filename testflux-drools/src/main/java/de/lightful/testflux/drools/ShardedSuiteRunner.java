@@ -0,0 +1,336 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import de.lightful.testflux.drools.impl.RuleSetKey;
+import de.lightful.testflux.drools.impl.RuleSourceResolver;
+import de.lightful.testflux.drools.impl.ShardPlanner;
+import de.lightful.testflux.drools.impl.SuiteSubset;
+import de.lightful.testflux.drools.impl.TestFluxConfiguration;
+import de.lightful.testflux.drools.impl.TestFluxMetrics;
+import de.lightful.testflux.drools.impl.TestResultsMerger;
+import org.apache.log4j.Logger;
+import org.testng.TestNG;
+import org.testng.xml.Parser;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs a TestNG suite in several JVMs at once. Test classes using the same {@link CompileRules} rule sets run in the
+ * same JVM, so each rule set is compiled in as few JVMs as possible, and the JVMs are balanced by the durations of the
+ * test classes in the previous run (see {@link ShardPlanner}). The <code>testng-results.xml</code> files of all JVMs
+ * are merged into one.
+ * <p/>
+ * Usage: <code>java de.lightful.testflux.drools.ShardedSuiteRunner suite.xml</code>, with the test classpath, which
+ * the forked JVMs use as well. Settings are given as system properties:
+ * <ul>
+ * <li><code>testflux.shards</code>: number of JVMs, defaults to the number of processors.</li>
+ * <li><code>testflux.shards.output</code>: output directory, defaults to <code>test-output</code>. Each JVM writes its
+ * reports to a subdirectory <code>shard-N</code>; the merged results and the durations of the test classes (in
+ * <code>testflux-metrics.csv</code>, which balances the next run) are written to the output directory itself.</li>
+ * <li><code>testflux.shards.jvm.args</code>: additional arguments for the forked JVMs, separated by spaces.</li>
+ * </ul>
+ * All other <code>testflux.*</code> system properties are passed on to the forked JVMs.
+ */
+public class ShardedSuiteRunner {
+
+  private static Logger log = Logger.getLogger(ShardedSuiteRunner.class);
+
+  public static final String PROPERTY_SHARDS = "testflux.shards";
+
+  public static final String PROPERTY_OUTPUT_DIRECTORY = "testflux.shards.output";
+
+  public static final String PROPERTY_JVM_ARGS = "testflux.shards.jvm.args";
+
+  private static final String DEFAULT_OUTPUT_DIRECTORY = "test-output";
+
+  private static final String METRICS_FILE = "testflux-metrics.csv";
+
+  private static final String RESULTS_FILE = "testng-results.xml";
+
+  private final XmlSuite suite;
+  private final int shardCount;
+  private final File outputDirectory;
+  private final List<String> jvmArguments;
+
+  public ShardedSuiteRunner(XmlSuite suite, int shardCount, File outputDirectory, List<String> jvmArguments) {
+    this.suite = suite;
+    this.shardCount = shardCount;
+    this.outputDirectory = outputDirectory;
+    this.jvmArguments = jvmArguments;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: " + ShardedSuiteRunner.class.getName() + " <suite.xml>");
+      System.exit(1);
+    }
+    final ShardedSuiteRunner runner = new ShardedSuiteRunner(parseSuite(args[0]),
+                                                             Integer.getInteger(PROPERTY_SHARDS, Runtime.getRuntime().availableProcessors()),
+                                                             new File(System.getProperty(PROPERTY_OUTPUT_DIRECTORY, DEFAULT_OUTPUT_DIRECTORY)),
+                                                             splitArguments(System.getProperty(PROPERTY_JVM_ARGS, "")));
+    System.exit(runner.run());
+  }
+
+  /**
+   * @return the TestNG exit status of all JVMs combined, zero if all tests passed.
+   */
+  public int run() throws IOException, InterruptedException {
+    Set<String> classNames = new LinkedHashSet<String>();
+    for (XmlTest test : suite.getTests()) {
+      classNames.addAll(SuiteSubset.testClassesOf(test).keySet());
+    }
+
+    final File metricsFile = new File(outputDirectory, METRICS_FILE);
+    final ShardPlanner planner = new ShardPlanner(shardCount, TestFluxMetrics.readTestClassMillis(metricsFile));
+    final List<ShardPlanner.Shard> shards = planner.plan(groupByRuleSets(classNames));
+
+    List<File> shardDirectories = new ArrayList<File>();
+    List<Process> processes = new ArrayList<Process>();
+    List<Thread> outputPumps = new ArrayList<Thread>();
+    try {
+      for (int i = 0; i < shards.size(); i++) {
+        final ShardPlanner.Shard shard = shards.get(i);
+        final File shardDirectory = new File(outputDirectory, "shard-" + (i + 1));
+        if (!shardDirectory.isDirectory() && !shardDirectory.mkdirs()) {
+          throw new IOException("Cannot create directory " + shardDirectory.getAbsolutePath() + ".");
+        }
+        final File suiteFile = new File(shardDirectory, "testng-shard.xml");
+        writeSuite(SuiteSubset.of(suite, shard.getClassNames()), suiteFile);
+        log.info("Shard " + (i + 1) + ": " + shard.getClassNames().size() + " test classes, estimated " +
+                 String.format(Locale.ENGLISH, "%.0f", shard.getEstimatedMillis()) + " ms.");
+        final Process process = start(shardDirectory, suiteFile);
+        shardDirectories.add(shardDirectory);
+        processes.add(process);
+        outputPumps.add(pumpOutput(process, "[shard " + (i + 1) + "] "));
+      }
+      int status = 0;
+      for (int i = 0; i < processes.size(); i++) {
+        status |= processes.get(i).waitFor();
+        outputPumps.get(i).join();
+      }
+      mergeMetrics(shardDirectories, metricsFile);
+      mergeResults(shardDirectories);
+      return status;
+    }
+    finally {
+      for (Process process : processes) {
+        process.destroy();
+      }
+    }
+  }
+
+  /**
+   * Classes whose rules cannot be resolved here (or which use none) form groups of their own.
+   */
+  private Collection<List<String>> groupByRuleSets(Collection<String> classNames) {
+    final RuleSourceResolver resolver = new RuleSourceResolver(new TestFluxConfiguration(suite.getParameters()).getRulesRootDirectory());
+    Map<Set<RuleSetKey>, List<String>> classesByRuleSets = new LinkedHashMap<Set<RuleSetKey>, List<String>>();
+    List<List<String>> classGroups = new ArrayList<List<String>>();
+    for (String className : classNames) {
+      final Set<RuleSetKey> ruleSets = ruleSetsOf(className, resolver);
+      if (ruleSets.isEmpty()) {
+        classGroups.add(Collections.singletonList(className));
+        continue;
+      }
+      List<String> classGroup = classesByRuleSets.get(ruleSets);
+      if (classGroup == null) {
+        classGroup = new ArrayList<String>();
+        classesByRuleSets.put(ruleSets, classGroup);
+        classGroups.add(classGroup);
+      }
+      classGroup.add(className);
+    }
+    return classGroups;
+  }
+
+  private Set<RuleSetKey> ruleSetsOf(String className, RuleSourceResolver resolver) {
+    Set<RuleSetKey> ruleSets = new HashSet<RuleSetKey>();
+    try {
+      final Class<?> testClass = Class.forName(className, false, ShardedSuiteRunner.class.getClassLoader());
+      final RulesBaseDirectory classBaseDirectory = testClass.getAnnotation(RulesBaseDirectory.class);
+      final CompileRules classRules = testClass.getAnnotation(CompileRules.class);
+      if (classRules != null) {
+        ruleSets.add(RuleSetKey.forUnits(resolver.resolve(classBaseDirectory, classRules.value())));
+      }
+      for (Method method : testClass.getMethods()) {
+        final CompileRules methodRules = method.getAnnotation(CompileRules.class);
+        if (methodRules != null) {
+          final RulesBaseDirectory methodBaseDirectory = method.getAnnotation(RulesBaseDirectory.class);
+          ruleSets.add(RuleSetKey.forUnits(resolver.resolve(methodBaseDirectory == null ? classBaseDirectory : methodBaseDirectory, methodRules.value())));
+        }
+      }
+    }
+    catch (ClassNotFoundException e) {
+      log.warn("Cannot load test class " + className + ", scheduling it without regard to its rules.");
+    }
+    catch (LinkageError e) {
+      log.warn("Cannot load test class " + className + ", scheduling it without regard to its rules: " + e);
+    }
+    catch (TestFluxException e) {
+      log.warn("Cannot resolve rules of test class " + className + ", scheduling it without regard to them: " + e.getMessage());
+      ruleSets.clear();
+    }
+    return ruleSets;
+  }
+
+  private static void writeSuite(XmlSuite shardSuite, File suiteFile) throws IOException {
+    PrintWriter out = new PrintWriter(suiteFile, "UTF-8");
+    try {
+      out.print(shardSuite.toXml());
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * The metrics report of each shard goes to its own directory, as reports written to the same file would replace each
+   * other.
+   */
+  private Process start(File shardDirectory, File suiteFile) throws IOException {
+    List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.addAll(jvmArguments);
+    for (String name : System.getProperties().stringPropertyNames()) {
+      if (name.startsWith("testflux.") && !name.startsWith("testflux.shards")) {
+        command.add("-D" + name + "=" + System.getProperty(name));
+      }
+    }
+    command.add("-D" + DroolsRuleTestListener.PARAMETER_METRICS_DIRECTORY + "=" + shardDirectory.getAbsolutePath());
+    command.add("-classpath");
+    command.add(System.getProperty("java.class.path"));
+    command.add(TestNG.class.getName());
+    command.add("-d");
+    command.add(shardDirectory.getAbsolutePath());
+    command.add(suiteFile.getAbsolutePath());
+    return new ProcessBuilder(command).redirectErrorStream(true).start();
+  }
+
+  private static Thread pumpOutput(final Process process, final String prefix) {
+    Thread outputPump = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        try {
+          String line;
+          while ((line = in.readLine()) != null) {
+            System.out.println(prefix + line);
+          }
+        }
+        catch (IOException e) {
+          log.warn("Cannot read output of forked JVM: " + e.getMessage());
+        }
+        finally {
+          try {
+            in.close();
+          }
+          catch (IOException ignored) {
+          }
+        }
+      }
+    }, "testflux-" + prefix.trim());
+    outputPump.setDaemon(true);
+    outputPump.start();
+    return outputPump;
+  }
+
+  /**
+   * Collects the test class and rule file rows of the shards' metrics reports, keeping the previous report if no shard
+   * wrote one.
+   */
+  private static void mergeMetrics(List<File> shardDirectories, File metricsFile) throws IOException {
+    List<String> rows = new ArrayList<String>();
+    for (File shardDirectory : shardDirectories) {
+      final File shardMetricsFile = new File(shardDirectory, METRICS_FILE);
+      if (!shardMetricsFile.isFile()) {
+        continue;
+      }
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(shardMetricsFile), "UTF-8"));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.startsWith("class,") || line.startsWith("ruleFile,")) {
+            rows.add(line);
+          }
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    if (rows.isEmpty()) {
+      return;
+    }
+    PrintWriter out = new PrintWriter(metricsFile, "UTF-8");
+    try {
+      out.println("scope,name,metric,count,total_ms,max_ms");
+      for (String row : rows) {
+        out.println(row);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private void mergeResults(List<File> shardDirectories) throws IOException {
+    List<File> resultFiles = new ArrayList<File>();
+    for (File shardDirectory : shardDirectories) {
+      resultFiles.add(new File(shardDirectory, RESULTS_FILE));
+    }
+    final File mergedFile = new File(outputDirectory, RESULTS_FILE);
+    new TestResultsMerger().merge(resultFiles, mergedFile);
+    log.info("Merged results of " + resultFiles.size() + " shards into " + mergedFile.getAbsolutePath() + ".");
+  }
+
+  private static List<String> splitArguments(String arguments) {
+    List<String> splitArguments = new ArrayList<String>();
+    for (String argument : arguments.trim().split("\\s+")) {
+      if (argument.length() > 0) {
+        splitArguments.add(argument);
+      }
+    }
+    return splitArguments;
+  }
+
+  private static XmlSuite parseSuite(String suiteFileName) throws Exception {
+    final Collection<XmlSuite> suites = new Parser(suiteFileName).parse();
+    if (suites.size() != 1) {
+      throw new TestFluxException("Suite file " + suiteFileName + " must contain exactly one suite, but contains " + suites.size() + ".");
+    }
+    return suites.iterator().next();
+  }
+}
@@ -0,0 +1,36 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Lets the tests of a class share the KnowledgeBase built from their {@link CompileRules} with other tests (see
+ * {@link KnowledgeBaseSharing}). Overrides the configuration property
+ * {@link DroolsRuleTestListener#PARAMETER_KNOWLEDGE_BASE_SHARING}.
+ */
+@Retention(RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface ShareKnowledgeBase {
+  KnowledgeBaseSharing value();
+}
@@ -0,0 +1,100 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import de.lightful.testflux.drools.impl.RuleFileWatcher;
+import de.lightful.testflux.drools.impl.SuiteSubset;
+import org.apache.log4j.Logger;
+import org.testng.TestNG;
+import org.testng.xml.Parser;
+import org.testng.xml.XmlSuite;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs a TestNG suite once, then keeps watching the rule files its tests used and reruns only the test classes whose
+ * {@link CompileRules} sources include a changed file, with the settings of the suite and its tests (see
+ * {@link SuiteSubset}). Everything runs in this JVM, so the listener's package caches
+ * survive between runs and only rule sets containing changed files are compiled again.
+ * <p/>
+ * Usage: <code>java de.lightful.testflux.drools.WatchModeRunner suite.xml</code>. The poll interval in milliseconds can
+ * be set with the system property <code>testflux.watch.interval</code> (default 1000).
+ */
+public class WatchModeRunner {
+
+  private static Logger log = Logger.getLogger(WatchModeRunner.class);
+
+  public static final String PROPERTY_POLL_INTERVAL = "testflux.watch.interval";
+
+  private static final long DEFAULT_POLL_INTERVAL = 1000;
+
+  private final XmlSuite suite;
+  private final long pollInterval;
+
+  public WatchModeRunner(XmlSuite suite, long pollInterval) {
+    this.suite = suite;
+    this.pollInterval = pollInterval;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: " + WatchModeRunner.class.getName() + " <suite.xml>");
+      System.exit(1);
+    }
+    new WatchModeRunner(parseSuite(args[0]), Long.getLong(PROPERTY_POLL_INTERVAL, DEFAULT_POLL_INTERVAL)).watch();
+  }
+
+  public void watch() throws InterruptedException {
+    run(suite);
+    RuleFileWatcher watcher = new RuleFileWatcher(DroolsRuleTestListener.ruleUsage().usedLocations());
+    log.info("Watching rule files for changes, press Ctrl-C to stop.");
+    while (!Thread.currentThread().isInterrupted()) {
+      Thread.sleep(pollInterval);
+      final List<File> changedFiles = watcher.changedFiles();
+      if (changedFiles.isEmpty()) {
+        continue;
+      }
+      final Set<String> affectedTestClasses = new TreeSet<String>(DroolsRuleTestListener.ruleUsage().testClassesAffectedBy(changedFiles));
+      if (affectedTestClasses.isEmpty()) {
+        log.info("Changed rule files " + changedFiles + " are not used by any test.");
+        continue;
+      }
+      log.info("Rule files " + changedFiles + " changed, rerunning " + affectedTestClasses + ".");
+      run(SuiteSubset.of(suite, affectedTestClasses));
+      watcher.watch(DroolsRuleTestListener.ruleUsage().usedLocations());
+    }
+  }
+
+  private void run(XmlSuite suiteToRun) {
+    TestNG testNG = new TestNG();
+    testNG.setXmlSuites(Collections.singletonList(suiteToRun));
+    testNG.run();
+  }
+
+  private static XmlSuite parseSuite(String suiteFileName) throws Exception {
+    final Collection<XmlSuite> suites = new Parser(suiteFileName).parse();
+    if (suites.size() != 1) {
+      throw new TestFluxException("Suite file " + suiteFileName + " must contain exactly one suite, but contains " + suites.size() + ".");
+    }
+    return suites.iterator().next();
+  }
+}
@@ -0,0 +1,69 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Measures the bytes allocated by the current thread, using the HotSpot extension of the thread MXBean. It is accessed
+ * reflectively, so on JVMs without it {@link #isSupported()} simply returns <code>false</code>.
+ */
+public class AllocationMeter {
+
+  private static final Object threadBean = ManagementFactory.getThreadMXBean();
+  private static final Method allocatedBytesMethod = lookupAllocatedBytesMethod();
+
+  private AllocationMeter() {
+  }
+
+  public static boolean isSupported() {
+    return allocatedBytesMethod != null;
+  }
+
+  /**
+   * @return the bytes allocated by the current thread so far, or <code>-1</code> if that is not supported.
+   */
+  public static long currentThreadAllocatedBytes() {
+    if (allocatedBytesMethod == null) {
+      return -1;
+    }
+    try {
+      return (Long) allocatedBytesMethod.invoke(threadBean, Thread.currentThread().getId());
+    }
+    catch (Exception e) {
+      return -1;
+    }
+  }
+
+  private static Method lookupAllocatedBytesMethod() {
+    try {
+      final Class<?> hotSpotThreadBean = Class.forName("com.sun.management.ThreadMXBean");
+      if (!hotSpotThreadBean.isInstance(threadBean)) {
+        return null;
+      }
+      if (!(Boolean) hotSpotThreadBean.getMethod("isThreadAllocatedMemorySupported").invoke(threadBean)) {
+        return null;
+      }
+      hotSpotThreadBean.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threadBean, true);
+      return hotSpotThreadBean.getMethod("getThreadAllocatedBytes", long.class);
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.drools.builder.KnowledgeBuilderFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Describes the environment compiled knowledge packages depend on: the Drools version and the class directories on the
+ * class path (where fact classes usually live). Jar files are only covered by the Drools version, since their names
+ * already carry a version and they differ between the test JVM and build tools that compile rules ahead of time.
+ */
+public class ClasspathFingerprint {
+
+  private ClasspathFingerprint() {
+  }
+
+  public static String compute(List<File> classpathEntries) {
+    StringBuilder fingerprint = new StringBuilder(256);
+    fingerprint.append("drools=").append(droolsVersion());
+    for (File entry : classpathEntries) {
+      if (entry.isDirectory()) {
+        fingerprint.append(';').append(entry.getAbsolutePath()).append('@').append(newestModification(entry));
+      }
+    }
+    return fingerprint.toString();
+  }
+
+  public static List<File> systemClasspath() {
+    List<File> entries = new ArrayList<File>();
+    for (String element : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+      if (element.length() > 0) {
+        File entry = new File(element);
+        entries.add(entry);
+        entries.addAll(manifestClasspathOf(entry));
+      }
+    }
+    return entries;
+  }
+
+  public static String droolsVersion() {
+    final Package droolsPackage = KnowledgeBuilderFactory.class.getPackage();
+    if (droolsPackage != null && droolsPackage.getImplementationVersion() != null) {
+      return droolsPackage.getImplementationVersion();
+    }
+    final CodeSource codeSource = KnowledgeBuilderFactory.class.getProtectionDomain().getCodeSource();
+    if (codeSource != null && codeSource.getLocation() != null) {
+      return new File(codeSource.getLocation().getPath()).getName();
+    }
+    return "unknown";
+  }
+
+  /**
+   * Surefire starts tests from a manifest-only jar, so the real class path is found in its manifest.
+   */
+  private static List<File> manifestClasspathOf(File entry) {
+    List<File> entries = new ArrayList<File>();
+    if (!entry.isFile() || !entry.getName().endsWith(".jar")) {
+      return entries;
+    }
+    JarFile jarFile = null;
+    try {
+      jarFile = new JarFile(entry);
+      final Manifest manifest = jarFile.getManifest();
+      final String classPath = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+      if (classPath != null) {
+        for (String element : classPath.trim().split("\\s+")) {
+          entries.add(fileFromManifestEntry(entry, element));
+        }
+      }
+    }
+    catch (IOException ignored) {
+      // not a readable jar - nothing to add
+    }
+    finally {
+      closeQuietly(jarFile);
+    }
+    return entries;
+  }
+
+  private static File fileFromManifestEntry(File jar, String element) {
+    try {
+      return new File(new URL(jar.toURI().toURL(), element).toURI());
+    }
+    catch (IOException e) {
+      return new File(element);
+    }
+    catch (URISyntaxException e) {
+      return new File(element);
+    }
+    catch (IllegalArgumentException e) {
+      return new File(element);
+    }
+  }
+
+  private static long newestModification(File directory) {
+    long newest = directory.lastModified();
+    final File[] children = directory.listFiles();
+    if (children == null) {
+      return newest;
+    }
+    for (File child : children) {
+      newest = Math.max(newest, child.isDirectory() ? newestModification(child) : child.lastModified());
+    }
+    return newest;
+  }
+
+  private static void closeQuietly(JarFile jarFile) {
+    if (jarFile != null) {
+      try {
+        jarFile.close();
+      }
+      catch (IOException ignored) {
+      }
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.TestFluxException;
+import org.drools.builder.KnowledgeBuilderError;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the problems found while compiling rule files, grouped by file in the order the files were compiled, so
+ * that all of them can be reported at once.
+ */
+public class CompilationErrorReport {
+
+  private final Map<File, List<String>> problemsByFile = new LinkedHashMap<File, List<String>>();
+  private int numberOfProblems = 0;
+
+  public void addErrors(File file, List<KnowledgeBuilderError> knowledgeBuilderErrors) {
+    for (KnowledgeBuilderError knowledgeBuilderError : knowledgeBuilderErrors) {
+      StringBuilder builder = new StringBuilder(256);
+      builder.append("line(s) [");
+      appendLinesTo(knowledgeBuilderError.getErrorLines(), builder);
+      builder.append("]: ");
+      builder.append(knowledgeBuilderError.getMessage());
+      addProblem(file, builder.toString());
+    }
+  }
+
+  public void addProblem(File file, String problem) {
+    List<String> problems = problemsByFile.get(file);
+    if (problems == null) {
+      problems = new ArrayList<String>();
+      problemsByFile.put(file, problems);
+    }
+    problems.add(problem);
+    numberOfProblems++;
+  }
+
+  public void addAll(CompilationErrorReport other) {
+    for (Map.Entry<File, List<String>> entry : other.problemsByFile.entrySet()) {
+      for (String problem : entry.getValue()) {
+        addProblem(entry.getKey(), problem);
+      }
+    }
+  }
+
+  public boolean hasErrors() {
+    return numberOfProblems > 0;
+  }
+
+  public void throwIfErrorsFound() {
+    if (hasErrors()) {
+      throw new TestFluxException(toString());
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(1024);
+    builder.append("Drools reported ").append(numberOfProblems).append(" error(s) in ").append(problemsByFile.size()).append(" rule file(s):");
+    for (Map.Entry<File, List<String>> entry : problemsByFile.entrySet()) {
+      builder.append("\n  ").append(entry.getKey().getAbsolutePath()).append(":");
+      for (String problem : entry.getValue()) {
+        builder.append("\n    ").append(problem);
+      }
+    }
+    return builder.toString();
+  }
+
+  private void appendLinesTo(int[] errorLines, StringBuilder appendToMe) {
+    for (int i = 0; i < errorLines.length; i++) {
+      if (i > 0) {
+        appendToMe.append(",");
+      }
+      appendToMe.append(errorLines[i]);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.RuleResourceType;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rule files contributed by a single {@link de.lightful.testflux.drools.RuleSource} annotation, in the order in
+ * which they are handed to the Drools compiler.
+ */
+public class CompilationUnit {
+
+  private final String description;
+  private final List<File> files;
+  private final File sourceDirectory;
+  private final RuleResourceType resourceType;
+
+  public CompilationUnit(String description, List<File> files) {
+    this(description, files, null, RuleResourceType.AUTO);
+  }
+
+  /**
+   * @param sourceDirectory the directory scanned for <code>files</code>, or <code>null</code> for individual files.
+   */
+  public CompilationUnit(String description, List<File> files, File sourceDirectory, RuleResourceType resourceType) {
+    this.description = description;
+    this.files = Collections.unmodifiableList(new ArrayList<File>(files));
+    this.sourceDirectory = sourceDirectory;
+    this.resourceType = resourceType;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public List<File> getFiles() {
+    return files;
+  }
+
+  public File getSourceDirectory() {
+    return sourceDirectory;
+  }
+
+  public RuleResourceType resourceTypeOf(File file) {
+    return resourceType.resolveFor(file);
+  }
+
+  /**
+   * @return whether all files of this unit are precompiled packages, i.e. there is nothing to compile.
+   */
+  public boolean isPrecompiled() {
+    for (File file : files) {
+      if (resourceTypeOf(file) != RuleResourceType.PKG) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return description + " " + files;
+  }
+}
@@ -0,0 +1,86 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A proxy in front of a KnowledgeBase shared between tests. Reading calls (including the creation of sessions) go to
+ * the shared KnowledgeBase. The first call modifying it creates a private copy holding the same packages, which
+ * receives this and all following calls.
+ */
+public class CopyOnWriteKnowledgeBase implements InvocationHandler {
+
+  private static final Set<String> MODIFYING_METHODS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+      "addKnowledgePackages", "removeKnowledgePackage", "removeRule", "removeFunction", "removeProcess", "removeQuery",
+      "addEventListener", "removeEventListener")));
+
+  private final KnowledgeBase shared;
+  private KnowledgeBase copy;
+
+  private CopyOnWriteKnowledgeBase(KnowledgeBase shared) {
+    this.shared = shared;
+  }
+
+  public static KnowledgeBase wrap(KnowledgeBase shared) {
+    return (KnowledgeBase) Proxy.newProxyInstance(KnowledgeBase.class.getClassLoader(), new Class[] {KnowledgeBase.class},
+                                                  new CopyOnWriteKnowledgeBase(shared));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return invokeObjectMethod(proxy, method, args);
+    }
+    try {
+      return method.invoke(targetFor(method), args);
+    }
+    catch (InvocationTargetException ite) {
+      throw ite.getCause();
+    }
+  }
+
+  private synchronized KnowledgeBase targetFor(Method method) {
+    if (copy == null && MODIFYING_METHODS.contains(method.getName())) {
+      copy = KnowledgeBaseFactory.newKnowledgeBase();
+      copy.addKnowledgePackages(shared.getKnowledgePackages());
+    }
+    return copy == null ? shared : copy;
+  }
+
+  private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+    if ("equals".equals(method.getName())) {
+      return proxy == args[0];
+    }
+    if ("hashCode".equals(method.getName())) {
+      return System.identityHashCode(proxy);
+    }
+    synchronized (this) {
+      return copy == null ? "Shared[" + shared + "]" : "CopyOf[" + shared + "]";
+    }
+  }
+}
@@ -0,0 +1,376 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.TestFluxException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads the records of a fact file one at a time, so that large files need not be held in memory as text. CSV files
+ * (RFC 4180 quoting, header line first), JSON arrays of flat objects and JSON lines files are supported; the format is
+ * determined from the file extension. All values are handed out as strings, JSON <code>null</code> as
+ * <code>null</code>.
+ */
+public class FactFileParser {
+
+  public interface RecordHandler {
+
+    /**
+     * @param names  the property names of the record.
+     * @param values the values of the record, in the order of <code>names</code>.
+     */
+    void record(List<String> names, List<String> values);
+  }
+
+  public enum Format {
+    CSV, JSON;
+
+    public static Format of(File file) {
+      final String name = file.getName().toLowerCase(Locale.ENGLISH);
+      if (name.endsWith(".csv")) {
+        return CSV;
+      }
+      if (name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+        return JSON;
+      }
+      throw new TestFluxException("Cannot determine format of fact file " + file.getAbsolutePath() + ", expected extension .csv, .json, .jsonl or .ndjson.");
+    }
+  }
+
+  private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+  private final File file;
+  private final char separator;
+
+  public FactFileParser(File file, char separator) {
+    this.file = file;
+    this.separator = separator;
+  }
+
+  public void parse(RecordHandler handler) {
+    final Format format = Format.of(file);
+    Input input = null;
+    try {
+      input = new Input(new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")));
+      if (input.peek() == BYTE_ORDER_MARK) {
+        input.read();
+      }
+      if (format == Format.CSV) {
+        parseCsv(input, handler);
+      }
+      else {
+        parseJson(input, handler);
+      }
+    }
+    catch (IOException e) {
+      throw new TestFluxException("Cannot read fact file " + file.getAbsolutePath() + ": " + e.getMessage(), e);
+    }
+    finally {
+      if (input != null) {
+        input.close();
+      }
+    }
+  }
+
+  private void parseCsv(Input input, RecordHandler handler) throws IOException {
+    final List<String> names = readCsvRecord(input);
+    if (names == null) {
+      return;
+    }
+    for (int i = 0; i < names.size(); i++) {
+      names.set(i, names.get(i).trim());
+    }
+    List<String> values;
+    int recordLine = input.line;
+    while ((values = readCsvRecord(input)) != null) {
+      final boolean blankLine = values.size() == 1 && values.get(0).length() == 0;
+      if (!blankLine) {
+        if (values.size() != names.size()) {
+          throw error(recordLine, "record has " + values.size() + " values, but the header names " + names.size() + " properties.");
+        }
+        deliver(handler, recordLine, names, values);
+      }
+      recordLine = input.line;
+    }
+  }
+
+  /**
+   * @return the values of the next line (or lines, if a quoted value contains line breaks), or <code>null</code> at
+   *         the end of the file.
+   */
+  private List<String> readCsvRecord(Input input) throws IOException {
+    if (input.peek() < 0) {
+      return null;
+    }
+    final int recordLine = input.line;
+    List<String> values = new ArrayList<String>();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    while (true) {
+      final int c = input.read();
+      if (quoted) {
+        if (c < 0) {
+          throw error(recordLine, "quoted value is not terminated.");
+        }
+        if (c != '"') {
+          value.append((char) c);
+        }
+        else if (input.peek() == '"') {
+          value.append((char) input.read());
+        }
+        else {
+          quoted = false;
+        }
+      }
+      else if (c == '"') {
+        quoted = true;
+      }
+      else if (c == separator) {
+        values.add(value.toString());
+        value.setLength(0);
+      }
+      else if (c < 0 || c == '\n') {
+        values.add(value.toString());
+        return values;
+      }
+      else if (c != '\r') {
+        value.append((char) c);
+      }
+    }
+  }
+
+  private void parseJson(Input input, RecordHandler handler) throws IOException {
+    input.skipWhitespace();
+    final boolean array = input.peek() == '[';
+    if (array) {
+      input.read();
+      input.skipWhitespace();
+      if (input.peek() == ']') {
+        input.read();
+        expectEndOfFile(input);
+        return;
+      }
+    }
+    while (true) {
+      input.skipWhitespace();
+      if (!array && input.peek() < 0) {
+        return;
+      }
+      readJsonObject(input, handler);
+      input.skipWhitespace();
+      if (array) {
+        final int c = input.read();
+        if (c == ']') {
+          expectEndOfFile(input);
+          return;
+        }
+        if (c != ',') {
+          throw error(input.line, "expected ',' or ']' after object.");
+        }
+      }
+    }
+  }
+
+  private void readJsonObject(Input input, RecordHandler handler) throws IOException {
+    final int recordLine = input.line;
+    expect(input, '{');
+    List<String> names = new ArrayList<String>();
+    List<String> values = new ArrayList<String>();
+    input.skipWhitespace();
+    if (input.peek() == '}') {
+      input.read();
+    }
+    else {
+      while (true) {
+        input.skipWhitespace();
+        names.add(readJsonString(input));
+        input.skipWhitespace();
+        expect(input, ':');
+        input.skipWhitespace();
+        values.add(readJsonValue(input));
+        input.skipWhitespace();
+        final int c = input.read();
+        if (c == '}') {
+          break;
+        }
+        if (c != ',') {
+          throw error(input.line, "expected ',' or '}' after value.");
+        }
+      }
+    }
+    deliver(handler, recordLine, names, values);
+  }
+
+  private String readJsonValue(Input input) throws IOException {
+    final int first = input.peek();
+    if (first == '"') {
+      return readJsonString(input);
+    }
+    if (first == '{' || first == '[') {
+      throw error(input.line, "nested objects and arrays are not supported in fact files.");
+    }
+    StringBuilder literal = new StringBuilder();
+    while (input.peek() >= 0 && ",}] \t\r\n".indexOf(input.peek()) < 0) {
+      literal.append((char) input.read());
+    }
+    if (literal.length() == 0) {
+      throw error(input.line, "value expected.");
+    }
+    return "null".equals(literal.toString()) ? null : literal.toString();
+  }
+
+  private String readJsonString(Input input) throws IOException {
+    expect(input, '"');
+    StringBuilder value = new StringBuilder();
+    while (true) {
+      final int c = input.read();
+      if (c < 0) {
+        throw error(input.line, "string is not terminated.");
+      }
+      if (c == '"') {
+        return value.toString();
+      }
+      if (c != '\\') {
+        value.append((char) c);
+        continue;
+      }
+      final int escaped = input.read();
+      switch (escaped) {
+        case 'b':
+          value.append('\b');
+          break;
+        case 'f':
+          value.append('\f');
+          break;
+        case 'n':
+          value.append('\n');
+          break;
+        case 'r':
+          value.append('\r');
+          break;
+        case 't':
+          value.append('\t');
+          break;
+        case 'u':
+          value.append(readUnicodeEscape(input));
+          break;
+        case '"':
+        case '\\':
+        case '/':
+          value.append((char) escaped);
+          break;
+        default:
+          throw error(input.line, "invalid escape sequence in string.");
+      }
+    }
+  }
+
+  private char readUnicodeEscape(Input input) throws IOException {
+    int code = 0;
+    for (int i = 0; i < 4; i++) {
+      final int digit = Character.digit(input.read(), 16);
+      if (digit < 0) {
+        throw error(input.line, "invalid unicode escape in string.");
+      }
+      code = code * 16 + digit;
+    }
+    return (char) code;
+  }
+
+  private void expect(Input input, char expected) throws IOException {
+    if (input.read() != expected) {
+      throw error(input.line, "expected '" + expected + "'.");
+    }
+  }
+
+  private void expectEndOfFile(Input input) throws IOException {
+    input.skipWhitespace();
+    if (input.peek() >= 0) {
+      throw error(input.line, "unexpected content after end of array.");
+    }
+  }
+
+  private void deliver(RecordHandler handler, int recordLine, List<String> names, List<String> values) {
+    try {
+      handler.record(names, values);
+    }
+    catch (TestFluxException e) {
+      throw error(recordLine, e.getMessage(), e);
+    }
+  }
+
+  private TestFluxException error(int line, String message) {
+    return error(line, message, null);
+  }
+
+  private TestFluxException error(int line, String message, Throwable cause) {
+    return new TestFluxException("Fact file " + file.getAbsolutePath() + ", line " + line + ": " + message, cause);
+  }
+
+  /**
+   * A reader with one character lookahead, counting lines.
+   */
+  private static class Input {
+
+    private final Reader reader;
+    private int next = -2;
+    private int line = 1;
+
+    public Input(Reader reader) {
+      this.reader = reader;
+    }
+
+    public int peek() throws IOException {
+      if (next == -2) {
+        next = reader.read();
+      }
+      return next;
+    }
+
+    public int read() throws IOException {
+      final int c = peek();
+      next = -2;
+      if (c == '\n') {
+        line++;
+      }
+      return c;
+    }
+
+    public void skipWhitespace() throws IOException {
+      while (Character.isWhitespace(peek())) {
+        read();
+      }
+    }
+
+    public void close() {
+      try {
+        reader.close();
+      }
+      catch (IOException ignored) {
+      }
+    }
+  }
+}
@@ -0,0 +1,368 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.Facts;
+import de.lightful.testflux.drools.TestFluxException;
+import org.drools.command.Command;
+import org.drools.command.CommandFactory;
+import org.drools.runtime.StatefulKnowledgeSession;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The records of a fact file, already converted to the property types of the fact class (see {@link Facts}). New fact
+ * instances are created from them whenever they are inserted, so tests sharing a fixture never see each other's
+ * modifications. Converted values are shared by these instances only if they are immutable (strings, primitives and
+ * their wrappers, big numbers and enums); values of other types, such as <code>java.util.Date</code>, are converted
+ * again for every instance.
+ */
+public class FactFixture {
+
+  private static final Map<Class<?>, Class<?>> WRAPPERS = new HashMap<Class<?>, Class<?>>();
+
+  static {
+    WRAPPERS.put(boolean.class, Boolean.class);
+    WRAPPERS.put(byte.class, Byte.class);
+    WRAPPERS.put(short.class, Short.class);
+    WRAPPERS.put(char.class, Character.class);
+    WRAPPERS.put(int.class, Integer.class);
+    WRAPPERS.put(long.class, Long.class);
+    WRAPPERS.put(float.class, Float.class);
+    WRAPPERS.put(double.class, Double.class);
+  }
+
+  private final File file;
+  private final long lastModified;
+  private final Constructor<?> constructor;
+  private final List<Record> records;
+
+  private FactFixture(File file, long lastModified, Constructor<?> constructor, List<Record> records) {
+    this.file = file;
+    this.lastModified = lastModified;
+    this.constructor = constructor;
+    this.records = records;
+  }
+
+  public static FactFixture parse(File file, Class<?> type, char separator) {
+    if (!file.isFile()) {
+      throw new TestFluxException("Fact file " + file.getAbsolutePath() + " given by @" + Facts.class.getSimpleName() + " not found.");
+    }
+    final long lastModified = file.lastModified();
+    final Constructor<?> constructor = findConstructor(type);
+    final RecordConverter converter = new RecordConverter(type);
+    new FactFileParser(file, separator).parse(converter);
+    return new FactFixture(file, lastModified, constructor, Collections.unmodifiableList(converter.records));
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return whether the file changed since it was parsed.
+   */
+  public boolean isStale() {
+    return file.lastModified() != lastModified;
+  }
+
+  public int size() {
+    return records.size();
+  }
+
+  public List<Object> newFacts() {
+    List<Object> facts = new ArrayList<Object>(records.size());
+    for (Record record : records) {
+      facts.add(newFact(record));
+    }
+    return facts;
+  }
+
+  /**
+   * Inserts new facts for all records into the session, <code>batchSize</code> facts per command. Only one batch of
+   * facts is created ahead of the session.
+   */
+  public void insertInto(StatefulKnowledgeSession session, int batchSize) {
+    final int factsPerBatch = Math.max(1, batchSize);
+    List<Object> batch = new ArrayList<Object>(Math.min(factsPerBatch, records.size()));
+    for (Record record : records) {
+      batch.add(newFact(record));
+      if (batch.size() == factsPerBatch) {
+        insertBatch(session, batch);
+        batch = new ArrayList<Object>(factsPerBatch);
+      }
+    }
+    if (!batch.isEmpty()) {
+      insertBatch(session, batch);
+    }
+  }
+
+  /**
+   * Drools 5.1 declares the insert command raw; its result (the fact handles) is not used.
+   */
+  @SuppressWarnings("unchecked")
+  private static void insertBatch(StatefulKnowledgeSession session, List<Object> batch) {
+    final Command<Object> insertCommand = CommandFactory.newInsertElements(batch);
+    session.execute(insertCommand);
+  }
+
+  private Object newFact(Record record) {
+    final Object fact;
+    try {
+      fact = constructor.newInstance();
+    }
+    catch (InstantiationException e) {
+      throw new TestFluxException("Cannot create fact of " + constructor.getDeclaringClass().getName() + ": " + e.getMessage(), e);
+    }
+    catch (IllegalAccessException e) {
+      throw new TestFluxException("Cannot create fact of " + constructor.getDeclaringClass().getName() + ": " + e.getMessage(), e);
+    }
+    catch (InvocationTargetException e) {
+      throw new TestFluxException("Constructor of " + constructor.getDeclaringClass().getName() + " failed: " + e.getCause().getMessage(), e.getCause());
+    }
+    for (int i = 0; i < record.properties.length; i++) {
+      if (record.mutableTexts[i] != null) {
+        record.properties[i].set(fact, convert(record.mutableTexts[i], record.properties[i].getType()));
+      }
+      else if (record.values[i] != null) {
+        record.properties[i].set(fact, record.values[i]);
+      }
+    }
+    return fact;
+  }
+
+  private static Constructor<?> findConstructor(Class<?> type) {
+    try {
+      final Constructor<?> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return constructor;
+    }
+    catch (NoSuchMethodException e) {
+      throw new TestFluxException("Fact class " + type.getName() + " needs a constructor without arguments.");
+    }
+  }
+
+  /**
+   * Converts the parsed records as they are read. Records of a CSV file all share the same properties.
+   */
+  private static class RecordConverter implements FactFileParser.RecordHandler {
+
+    private final Class<?> type;
+    private final Map<String, Property> propertiesByName = new HashMap<String, Property>();
+    private final List<Record> records = new ArrayList<Record>();
+    private List<String> lastNames;
+    private Property[] lastProperties;
+
+    public RecordConverter(Class<?> type) {
+      this.type = type;
+    }
+
+    @Override
+    public void record(List<String> names, List<String> values) {
+      if (!names.equals(lastNames)) {
+        lastNames = new ArrayList<String>(names);
+        lastProperties = new Property[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+          lastProperties[i] = propertyFor(names.get(i));
+        }
+      }
+      Object[] convertedValues = new Object[values.size()];
+      String[] mutableTexts = new String[values.size()];
+      for (int i = 0; i < values.size(); i++) {
+        final String value = values.get(i);
+        if (value != null && value.length() > 0) {
+          final Class<?> propertyType = lastProperties[i].getType();
+          convertedValues[i] = convert(value, propertyType);
+          if (!isImmutable(propertyType)) {
+            mutableTexts[i] = value;
+          }
+        }
+      }
+      records.add(new Record(lastProperties, convertedValues, mutableTexts));
+    }
+
+    private Property propertyFor(String name) {
+      Property property = propertiesByName.get(name);
+      if (property == null) {
+        property = findProperty(type, name);
+        propertiesByName.put(name, property);
+      }
+      return property;
+    }
+  }
+
+  private static Property findProperty(Class<?> type, String name) {
+    if (name.length() == 0) {
+      throw new TestFluxException("Empty property name.");
+    }
+    final String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    for (Method method : type.getMethods()) {
+      if (method.getName().equals(setterName) && method.getParameterTypes().length == 1 && !Modifier.isStatic(method.getModifiers())) {
+        return new SetterProperty(method);
+      }
+    }
+    for (Class<?> declaringType = type; declaringType != null && declaringType != Object.class; declaringType = declaringType.getSuperclass()) {
+      try {
+        final Field field = declaringType.getDeclaredField(name);
+        if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+          return new FieldProperty(field);
+        }
+      }
+      catch (NoSuchFieldException ignored) {
+        // look in superclass
+      }
+    }
+    throw new TestFluxException(type.getName() + " has neither a setter " + setterName + "() nor a field " + name + ".");
+  }
+
+  private static boolean isImmutable(Class<?> type) {
+    return type.isPrimitive() || WRAPPERS.containsValue(type) || type == String.class || type == Object.class || type.isEnum() ||
+           type == BigDecimal.class || type == BigInteger.class;
+  }
+
+  static Object convert(String text, Class<?> type) {
+    final Class<?> targetType = type.isPrimitive() ? WRAPPERS.get(type) : type;
+    if (targetType == String.class || targetType == Object.class) {
+      return text;
+    }
+    final String trimmedText = text.trim();
+    if (targetType == Character.class) {
+      if (text.length() != 1) {
+        throw new TestFluxException("Cannot convert '" + text + "' to " + type.getName() + ", expected a single character.");
+      }
+      return text.charAt(0);
+    }
+    if (targetType == Boolean.class) {
+      if (!"true".equalsIgnoreCase(trimmedText) && !"false".equalsIgnoreCase(trimmedText)) {
+        throw new TestFluxException("Cannot convert '" + text + "' to " + type.getName() + ", expected true or false.");
+      }
+      return Boolean.valueOf(trimmedText);
+    }
+    try {
+      try {
+        final Method valueOf = targetType.getMethod("valueOf", String.class);
+        if (Modifier.isStatic(valueOf.getModifiers()) && targetType.isAssignableFrom(valueOf.getReturnType())) {
+          return valueOf.invoke(null, trimmedText);
+        }
+      }
+      catch (NoSuchMethodException ignored) {
+        // try constructor
+      }
+      return targetType.getConstructor(String.class).newInstance(trimmedText);
+    }
+    catch (NoSuchMethodException e) {
+      throw new TestFluxException("Cannot convert '" + text + "' to " + type.getName() + ", it has neither a static valueOf(String) method nor a String constructor.");
+    }
+    catch (InvocationTargetException e) {
+      throw new TestFluxException("Cannot convert '" + text + "' to " + type.getName() + ": " + e.getCause(), e.getCause());
+    }
+    catch (InstantiationException e) {
+      throw new TestFluxException("Cannot convert '" + text + "' to " + type.getName() + ": " + e.getMessage(), e);
+    }
+    catch (IllegalAccessException e) {
+      throw new TestFluxException("Cannot convert '" + text + "' to " + type.getName() + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static class Record {
+
+    private final Property[] properties;
+    private final Object[] values;
+    /**
+     * The texts of values which are converted again for every fact, as instances of their type can be modified.
+     */
+    private final String[] mutableTexts;
+
+    public Record(Property[] properties, Object[] values, String[] mutableTexts) {
+      this.properties = properties;
+      this.values = values;
+      this.mutableTexts = mutableTexts;
+    }
+  }
+
+  private interface Property {
+
+    Class<?> getType();
+
+    void set(Object fact, Object value);
+  }
+
+  private static class SetterProperty implements Property {
+
+    private final Method setter;
+
+    public SetterProperty(Method setter) {
+      this.setter = setter;
+      setter.setAccessible(true);
+    }
+
+    @Override
+    public Class<?> getType() {
+      return setter.getParameterTypes()[0];
+    }
+
+    @Override
+    public void set(Object fact, Object value) {
+      try {
+        setter.invoke(fact, value);
+      }
+      catch (IllegalAccessException iae) {
+        throw new TestFluxException("Error setting fact property through " + setter.getDeclaringClass().getName() + "." + setter.getName() + "()");
+      }
+      catch (InvocationTargetException ite) {
+        throw new TestFluxException("Error setting fact property through " + setter.getDeclaringClass().getName() + "." + setter.getName() + "()", ite.getCause());
+      }
+    }
+  }
+
+  private static class FieldProperty implements Property {
+
+    private final Field field;
+
+    public FieldProperty(Field field) {
+      this.field = field;
+      field.setAccessible(true);
+    }
+
+    @Override
+    public Class<?> getType() {
+      return field.getType();
+    }
+
+    @Override
+    public void set(Object fact, Object value) {
+      try {
+        field.set(fact, value);
+      }
+      catch (IllegalAccessException iae) {
+        throw new TestFluxException("Error setting fact property " + field.getDeclaringClass().getName() + "." + field.getName());
+      }
+    }
+  }
+}
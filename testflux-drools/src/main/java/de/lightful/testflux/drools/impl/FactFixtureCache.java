@@ -0,0 +1,125 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.TestFluxException;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The parsed fact files, shared by all tests of the JVM. Like {@link SharedKnowledgeBases}, threads asking for a file
+ * which is currently being parsed wait for it instead of parsing it again. A file is parsed again once it changes.
+ */
+public class FactFixtureCache {
+
+  private static Logger log = Logger.getLogger(FactFixtureCache.class);
+
+  private final ConcurrentMap<Key, Future<FactFixture>> fixtures = new ConcurrentHashMap<Key, Future<FactFixture>>();
+
+  public FactFixture obtain(final File file, final Class<?> type, final char separator) {
+    final Key key = new Key(file.getAbsoluteFile(), type, separator);
+    Future<FactFixture> fixture = fixtures.get(key);
+    if (fixture != null && fixture.isDone() && isStale(key, fixture)) {
+      fixtures.remove(key, fixture);
+      fixture = null;
+    }
+    if (fixture == null) {
+      FutureTask<FactFixture> parsing = new FutureTask<FactFixture>(new Callable<FactFixture>() {
+        @Override
+        public FactFixture call() throws Exception {
+          final long start = System.nanoTime();
+          final FactFixture parsedFixture = FactFixture.parse(key.file, type, separator);
+          log.debug("Parsed " + parsedFixture.size() + " facts of " + type.getName() + " from " + key.file.getAbsolutePath() + " in " +
+                    (System.nanoTime() - start) / 1000000 + " ms.");
+          return parsedFixture;
+        }
+      });
+      fixture = fixtures.putIfAbsent(key, parsing);
+      if (fixture == null) {
+        fixture = parsing;
+        parsing.run();
+      }
+    }
+    return waitFor(key, fixture);
+  }
+
+  private boolean isStale(Key key, Future<FactFixture> fixture) {
+    try {
+      return waitFor(key, fixture).isStale();
+    }
+    catch (TestFluxException e) {
+      // parsing failed and the entry is gone already, try again
+      return true;
+    }
+  }
+
+  private FactFixture waitFor(Key key, Future<FactFixture> fixture) {
+    try {
+      return fixture.get();
+    }
+    catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TestFluxException("Interrupted while waiting for fact file " + key.file.getAbsolutePath() + " to be parsed.", ie);
+    }
+    catch (ExecutionException ee) {
+      fixtures.remove(key, fixture);
+      if (ee.getCause() instanceof TestFluxException) {
+        throw (TestFluxException) ee.getCause();
+      }
+      throw new TestFluxException("Exception occurred while parsing fact file " + key.file.getAbsolutePath() + ": " + ee.getCause().getMessage(), ee.getCause());
+    }
+  }
+
+  private static class Key {
+
+    private final File file;
+    private final Class<?> type;
+    private final char separator;
+
+    public Key(File file, Class<?> type, char separator) {
+      this.file = file;
+      this.type = type;
+      this.separator = separator;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return separator == key.separator && file.equals(key.file) && type.equals(key.type);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = file.hashCode();
+      result = 31 * result + type.hashCode();
+      return 31 * result + separator;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import java.util.regex.Pattern;
+
+/**
+ * A file name pattern in the usual glob syntax: <code>*</code> matches any characters except <code>/</code>,
+ * <code>**</code> matches any characters including <code>/</code> (so <code>**&#47;</code> also matches no directory
+ * at all), <code>?</code> matches a single character. Patterns without a <code>/</code> are matched against the file
+ * name only, all others against the path relative to the scanned directory, using <code>/</code> as separator.
+ */
+public class GlobPattern {
+
+  private final String glob;
+  private final Pattern pattern;
+  private final boolean matchesFileNameOnly;
+
+  public GlobPattern(String glob) {
+    this.glob = glob;
+    this.pattern = Pattern.compile(toRegularExpression(glob));
+    this.matchesFileNameOnly = glob.indexOf('/') < 0;
+  }
+
+  public boolean matches(String relativePath) {
+    String candidate = relativePath;
+    if (matchesFileNameOnly) {
+      candidate = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+    }
+    return pattern.matcher(candidate).matches();
+  }
+
+  @Override
+  public String toString() {
+    return glob;
+  }
+
+  private static String toRegularExpression(String glob) {
+    StringBuilder regex = new StringBuilder(glob.length() * 2);
+    for (int i = 0; i < glob.length(); i++) {
+      final char c = glob.charAt(i);
+      if (c == '*') {
+        if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+          i++;
+          if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+            i++;
+            regex.append("(?:.*/)?");
+          }
+          else {
+            regex.append(".*");
+          }
+        }
+        else {
+          regex.append("[^/]*");
+        }
+      }
+      else if (c == '?') {
+        regex.append("[^/]");
+      }
+      else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return regex.toString();
+  }
+}
@@ -0,0 +1,194 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import com.google.inject.Inject;
+import de.lightful.testflux.drools.NoInjection;
+import de.lightful.testflux.drools.TestFluxException;
+import org.drools.KnowledgeBase;
+import org.drools.runtime.StatefulKnowledgeSession;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The fields and setter methods of a test class that receive a KnowledgeBase or session, found once per class and
+ * reused for every test invocation. Members are taken from the whole class hierarchy (superclass members first), so
+ * that a common test base class may declare them. A member qualifies if it is annotated with {@link Inject}, not
+ * annotated with {@link NoInjection}, and its (parameter) type accepts the injected object.
+ */
+public class InjectionPlan {
+
+  private static final ConcurrentMap<Class<?>, InjectionPlan> plans = new ConcurrentHashMap<Class<?>, InjectionPlan>();
+
+  private final List<InjectionPoint> knowledgeBasePoints;
+  private final List<InjectionPoint> sessionPoints;
+
+  private InjectionPlan(List<InjectionPoint> injectionPoints) {
+    this.knowledgeBasePoints = pointsAccepting(injectionPoints, KnowledgeBase.class);
+    this.sessionPoints = pointsAccepting(injectionPoints, StatefulKnowledgeSession.class);
+  }
+
+  public static InjectionPlan forClass(Class<?> testClass) {
+    InjectionPlan plan = plans.get(testClass);
+    if (plan == null) {
+      plan = new InjectionPlan(findInjectionPoints(testClass));
+      final InjectionPlan concurrentlyCreatedPlan = plans.putIfAbsent(testClass, plan);
+      if (concurrentlyCreatedPlan != null) {
+        plan = concurrentlyCreatedPlan;
+      }
+    }
+    return plan;
+  }
+
+  public boolean acceptsKnowledgeSession() {
+    return !sessionPoints.isEmpty();
+  }
+
+  public void injectKnowledgeBase(Object testInstance, KnowledgeBase knowledgeBase) {
+    inject(knowledgeBasePoints, testInstance, knowledgeBase);
+  }
+
+  public void injectKnowledgeSession(Object testInstance, StatefulKnowledgeSession session) {
+    inject(sessionPoints, testInstance, session);
+  }
+
+  private void inject(List<InjectionPoint> injectionPoints, Object testInstance, Object injectedValue) {
+    for (InjectionPoint injectionPoint : injectionPoints) {
+      injectionPoint.inject(testInstance, injectedValue);
+    }
+  }
+
+  private static List<InjectionPoint> pointsAccepting(List<InjectionPoint> injectionPoints, Class<?> injectedType) {
+    List<InjectionPoint> matchingPoints = new ArrayList<InjectionPoint>();
+    for (InjectionPoint injectionPoint : injectionPoints) {
+      if (injectionPoint.getType().isAssignableFrom(injectedType)) {
+        matchingPoints.add(injectionPoint);
+      }
+    }
+    return Collections.unmodifiableList(matchingPoints);
+  }
+
+  private static List<InjectionPoint> findInjectionPoints(Class<?> testClass) {
+    LinkedList<Class<?>> hierarchy = new LinkedList<Class<?>>();
+    for (Class<?> type = testClass; type != null && type != Object.class; type = type.getSuperclass()) {
+      hierarchy.addFirst(type);
+    }
+
+    Set<String> overriddenMethods = new HashSet<String>();
+    List<InjectionPoint> injectionPoints = new ArrayList<InjectionPoint>();
+    for (Class<?> type : hierarchy) {
+      for (Field field : type.getDeclaredFields()) {
+        if (isInjectable(field.getAnnotation(Inject.class), field.getAnnotation(NoInjection.class)) && !Modifier.isStatic(field.getModifiers())) {
+          injectionPoints.add(new FieldInjectionPoint(field));
+        }
+      }
+    }
+    for (Class<?> type : reversed(hierarchy)) {
+      for (Method method : type.getDeclaredMethods()) {
+        final String signature = method.getName() + Arrays.asList(method.getParameterTypes());
+        final boolean overridden = !Modifier.isPrivate(method.getModifiers()) && !overriddenMethods.add(signature);
+        if (!overridden && method.getParameterTypes().length == 1 && !Modifier.isStatic(method.getModifiers())
+            && isInjectable(method.getAnnotation(Inject.class), method.getAnnotation(NoInjection.class))) {
+          injectionPoints.add(new SetterInjectionPoint(method));
+        }
+      }
+    }
+    return injectionPoints;
+  }
+
+  private static List<Class<?>> reversed(List<Class<?>> hierarchy) {
+    List<Class<?>> reversed = new ArrayList<Class<?>>(hierarchy);
+    Collections.reverse(reversed);
+    return reversed;
+  }
+
+  private static boolean isInjectable(Inject inject, NoInjection noInjection) {
+    return inject != null && noInjection == null;
+  }
+
+  private interface InjectionPoint {
+
+    Class<?> getType();
+
+    void inject(Object testInstance, Object injectedValue);
+  }
+
+  private static class FieldInjectionPoint implements InjectionPoint {
+
+    private final Field field;
+
+    public FieldInjectionPoint(Field field) {
+      this.field = field;
+      field.setAccessible(true);
+    }
+
+    @Override
+    public Class<?> getType() {
+      return field.getType();
+    }
+
+    @Override
+    public void inject(Object testInstance, Object injectedValue) {
+      try {
+        field.set(testInstance, injectedValue);
+      }
+      catch (IllegalAccessException iae) {
+        throw new TestFluxException("Error injecting " + field.getType().getSimpleName() + " into " + field.getDeclaringClass().getName() + "." + field.getName());
+      }
+    }
+  }
+
+  private static class SetterInjectionPoint implements InjectionPoint {
+
+    private final Method setter;
+
+    public SetterInjectionPoint(Method setter) {
+      this.setter = setter;
+      setter.setAccessible(true);
+    }
+
+    @Override
+    public Class<?> getType() {
+      return setter.getParameterTypes()[0];
+    }
+
+    @Override
+    public void inject(Object testInstance, Object injectedValue) {
+      try {
+        setter.invoke(testInstance, injectedValue);
+      }
+      catch (IllegalAccessException iae) {
+        throw new TestFluxException("Error injecting " + getType().getSimpleName() + " through " + setter.getDeclaringClass().getName() + "." + setter.getName() + "()");
+      }
+      catch (InvocationTargetException ite) {
+        throw new TestFluxException("Error injecting " + getType().getSimpleName() + " through " + setter.getDeclaringClass().getName() + "." + setter.getName() + "()", ite.getCause());
+      }
+    }
+  }
+}
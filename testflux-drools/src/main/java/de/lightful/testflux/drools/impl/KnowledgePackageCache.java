@@ -0,0 +1,292 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.RuleResourceType;
+import de.lightful.testflux.drools.TestFluxException;
+import org.apache.log4j.Logger;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the knowledge packages compiled for a rule set, so that test methods and test classes asking for the same
+ * (unmodified) rule files share one compilation. Threads asking for a rule set which is currently being compiled wait
+ * for that compilation instead of starting their own.
+ * <p/>
+ * The cache can be bounded (see {@link #configure}) by number of entries and by estimated size, which is derived from
+ * the size of the rule files (see {@link #estimateSize}). When a limit is exceeded, the least recently ({@link Eviction#LRU}) or least frequently
+ * ({@link Eviction#LFU}) used rule sets are dropped. With soft references, the garbage collector may drop entries, too,
+ * when the heap runs low; such entries are compiled again on their next use.
+ */
+public class KnowledgePackageCache {
+
+  private static Logger log = Logger.getLogger(KnowledgePackageCache.class);
+
+  /**
+   * Approximate ratio of the heap taken by compiled rules (including generated classes) to the size of their source.
+   */
+  private static final int HEAP_BYTES_PER_SOURCE_BYTE = 20;
+
+  public enum Eviction {
+    LRU, LFU
+  }
+
+  /**
+   * Told about rule sets leaving the cache, so that whatever was built from their packages can be dropped as well.
+   */
+  public interface RemovalListener {
+
+    void removed(RuleSetKey key);
+  }
+
+  private final ConcurrentMap<RuleSetKey, Entry> entries = new ConcurrentHashMap<RuleSetKey, Entry>();
+  private final AtomicLong clock = new AtomicLong();
+  private final TestFluxMetrics metrics;
+
+  private int maxEntries = 0;
+  private long maxBytes = 0;
+  private Eviction eviction = Eviction.LRU;
+  private boolean softReferences = false;
+  private long estimatedBytes = 0;
+  private final List<RemovalListener> removalListeners = new ArrayList<RemovalListener>();
+
+  /**
+   * Creates an unbounded cache holding its entries strongly.
+   */
+  public KnowledgePackageCache(TestFluxMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param maxEntries     maximum number of cached rule sets, zero for no limit.
+   * @param maxBytes       maximum estimated size of all cached rule sets, zero for no limit.
+   * @param softReferences whether rule sets compiled from now on may be dropped by the garbage collector.
+   */
+  public synchronized void configure(int maxEntries, long maxBytes, Eviction eviction, boolean softReferences) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.eviction = eviction;
+    this.softReferences = softReferences;
+    evictIfNeeded();
+  }
+
+  public synchronized void addRemovalListener(RemovalListener removalListener) {
+    removalListeners.add(removalListener);
+  }
+
+  public Collection<KnowledgePackage> obtainPackages(final List<CompilationUnit> compilationUnits, final KnowledgePackageCompiler compiler) {
+    final RuleSetKey key = RuleSetKey.forUnits(compilationUnits);
+    while (true) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        FutureTask<Collection<KnowledgePackage>> compilation = new FutureTask<Collection<KnowledgePackage>>(new Callable<Collection<KnowledgePackage>>() {
+          @Override
+          public Collection<KnowledgePackage> call() throws Exception {
+            log.debug("Compiling rule set " + compilationUnits + " (not found in cache).");
+            return Collections.unmodifiableCollection(compiler.compile(compilationUnits));
+          }
+        });
+        final Entry newEntry = new Entry(compilation);
+        entry = entries.putIfAbsent(key, newEntry);
+        if (entry == null) {
+          metrics.recordCacheLookup(TestFluxMetrics.Cache.MEMORY, false);
+          compilation.run();
+          final Collection<KnowledgePackage> knowledgePackages = waitFor(key, newEntry);
+          admit(key, newEntry, knowledgePackages, estimateSize(compilationUnits));
+          return knowledgePackages;
+        }
+      }
+      final Collection<KnowledgePackage> knowledgePackages = waitFor(key, entry);
+      if (knowledgePackages != null) {
+        metrics.recordCacheLookup(TestFluxMetrics.Cache.MEMORY, true);
+        entry.touch(clock.incrementAndGet());
+        return knowledgePackages;
+      }
+      log.debug("Rule set " + compilationUnits + " was dropped by the garbage collector.");
+      remove(key, entry);
+    }
+  }
+
+  /**
+   * @return the packages of the entry (once compiled), or <code>null</code> if the garbage collector dropped them.
+   */
+  private Collection<KnowledgePackage> waitFor(RuleSetKey key, Entry entry) {
+    try {
+      return entry.knowledgePackages();
+    }
+    catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TestFluxException("Interrupted while waiting for rule compilation to finish.", ie);
+    }
+    catch (ExecutionException ee) {
+      entries.remove(key, entry);
+      if (ee.getCause() instanceof TestFluxException) {
+        throw (TestFluxException) ee.getCause();
+      }
+      throw new TestFluxException("Exception occurred while compiling rules: " + ee.getCause().getMessage(), ee.getCause());
+    }
+  }
+
+  private synchronized void admit(RuleSetKey key, Entry entry, Collection<KnowledgePackage> knowledgePackages, long estimatedEntryBytes) {
+    entry.estimatedBytes = estimatedEntryBytes;
+    entry.hold(knowledgePackages, softReferences);
+    entry.touch(clock.incrementAndGet());
+    if (entries.get(key) == entry) {
+      estimatedBytes += entry.estimatedBytes;
+      evictIfNeeded();
+    }
+    metrics.recordCacheBytes(TestFluxMetrics.Cache.MEMORY, estimatedBytes);
+  }
+
+  private synchronized void remove(RuleSetKey key, Entry entry) {
+    if (entries.remove(key, entry)) {
+      estimatedBytes -= entry.estimatedBytes;
+      metrics.recordCacheEviction(TestFluxMetrics.Cache.MEMORY);
+      metrics.recordCacheBytes(TestFluxMetrics.Cache.MEMORY, estimatedBytes);
+      notifyRemoved(key);
+    }
+  }
+
+  private synchronized void evictIfNeeded() {
+    removeCollectedEntries();
+    while ((maxEntries > 0 && entries.size() > maxEntries) || (maxBytes > 0 && estimatedBytes > maxBytes)) {
+      Map.Entry<RuleSetKey, Entry> victim = null;
+      for (Map.Entry<RuleSetKey, Entry> candidate : entries.entrySet()) {
+        if (candidate.getValue().isCompiled() && (victim == null || candidate.getValue().isLessUsedThan(victim.getValue(), eviction))) {
+          victim = candidate;
+        }
+      }
+      if (victim == null) {
+        return;
+      }
+      log.debug("Evicting " + victim.getKey() + " from rule cache (" + eviction + ").");
+      remove(victim.getKey(), victim.getValue());
+    }
+  }
+
+  private void removeCollectedEntries() {
+    List<Map.Entry<RuleSetKey, Entry>> collected = new ArrayList<Map.Entry<RuleSetKey, Entry>>();
+    for (Map.Entry<RuleSetKey, Entry> candidate : entries.entrySet()) {
+      if (candidate.getValue().isCollected()) {
+        collected.add(candidate);
+      }
+    }
+    for (Map.Entry<RuleSetKey, Entry> entry : collected) {
+      remove(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Estimates the heap retained by the compiled packages from the size of their rule files. This is rough, but cheap
+   * enough to be done on every cache miss; serializing the packages to measure them would cost about as much as loading
+   * them from the persistent store.
+   */
+  static long estimateSize(List<CompilationUnit> compilationUnits) {
+    long sourceBytes = 0;
+    for (CompilationUnit compilationUnit : compilationUnits) {
+      for (File file : compilationUnit.getFiles()) {
+        sourceBytes += compilationUnit.resourceTypeOf(file) == RuleResourceType.PKG ? file.length() : file.length() * HEAP_BYTES_PER_SOURCE_BYTE;
+      }
+    }
+    return sourceBytes;
+  }
+
+  public synchronized void clear() {
+    final List<RuleSetKey> keys = new ArrayList<RuleSetKey>(entries.keySet());
+    entries.clear();
+    estimatedBytes = 0;
+    metrics.recordCacheBytes(TestFluxMetrics.Cache.MEMORY, 0);
+    for (RuleSetKey key : keys) {
+      notifyRemoved(key);
+    }
+  }
+
+  private void notifyRemoved(RuleSetKey key) {
+    for (RemovalListener removalListener : removalListeners) {
+      removalListener.removed(key);
+    }
+  }
+
+  private static class Entry {
+
+    /**
+     * Set while the rule set is being compiled, then replaced by one of the package fields.
+     */
+    private volatile Future<Collection<KnowledgePackage>> compilation;
+    private volatile Collection<KnowledgePackage> strongPackages;
+    private volatile SoftReference<Collection<KnowledgePackage>> softPackages;
+    private volatile long lastUsed;
+    private final AtomicLong uses = new AtomicLong();
+    private long estimatedBytes;
+
+    public Entry(FutureTask<Collection<KnowledgePackage>> compilation) {
+      this.compilation = compilation;
+    }
+
+    public Collection<KnowledgePackage> knowledgePackages() throws InterruptedException, ExecutionException {
+      final Future<Collection<KnowledgePackage>> pendingCompilation = compilation;
+      if (pendingCompilation != null) {
+        return pendingCompilation.get();
+      }
+      return strongPackages != null ? strongPackages : softPackages.get();
+    }
+
+    public void hold(Collection<KnowledgePackage> knowledgePackages, boolean soft) {
+      if (soft) {
+        softPackages = new SoftReference<Collection<KnowledgePackage>>(knowledgePackages);
+      }
+      else {
+        strongPackages = knowledgePackages;
+      }
+      compilation = null;
+    }
+
+    public void touch(long now) {
+      lastUsed = now;
+      uses.incrementAndGet();
+    }
+
+    public boolean isCompiled() {
+      return compilation == null;
+    }
+
+    public boolean isCollected() {
+      return isCompiled() && strongPackages == null && softPackages.get() == null;
+    }
+
+    public boolean isLessUsedThan(Entry other, Eviction eviction) {
+      if (eviction == Eviction.LFU && uses.get() != other.uses.get()) {
+        return uses.get() < other.uses.get();
+      }
+      return lastUsed < other.lastUsed;
+    }
+  }
+}
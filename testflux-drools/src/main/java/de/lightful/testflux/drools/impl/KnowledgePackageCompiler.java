@@ -0,0 +1,271 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.RuleResourceType;
+import de.lightful.testflux.drools.TestFluxException;
+import org.drools.builder.DecisionTableConfiguration;
+import org.drools.builder.DecisionTableInputType;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderError;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.io.Resource;
+import org.drools.definition.KnowledgePackage;
+import org.drools.io.ResourceFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles the files of one or more {@link CompilationUnit}s into knowledge packages.
+ * <p/>
+ * With more than one compile thread, every compilation unit is compiled on its own {@link KnowledgeBuilder} and the
+ * resulting packages are merged when they are added to a KnowledgeBase. This only works for rule sources which compile
+ * independently of each other, i.e. which do not use functions, declared types or imports from another
+ * {@link de.lightful.testflux.drools.RuleSource}.
+ * <p/>
+ * All files are added before errors are reported, so one run shows every broken rule. Errors are grouped by file in
+ * declaration order, no matter which unit finishes compiling first.
+ * <p/>
+ * If a {@link PersistentPackageStore} is given, it is consulted before compiling: per rule source when compiling in
+ * parallel, per complete rule set otherwise. Rule sources made up of precompiled packages only are loaded directly.
+ * <p/>
+ * Within a rule source, DSL files are added before all other files, so DSLR files find their language definitions.
+ * When compiling in parallel, DSL and DSLR files using it must therefore belong to the same rule source.
+ */
+public class KnowledgePackageCompiler {
+
+  private final int compileThreads;
+  private final PersistentPackageStore packageStore;
+  private final TestFluxMetrics metrics;
+  private ExecutorService executor;
+
+  public KnowledgePackageCompiler() {
+    this(1, null, new TestFluxMetrics());
+  }
+
+  /**
+   * @param packageStore where compiled packages are kept between JVM runs, or <code>null</code> to always compile.
+   */
+  public KnowledgePackageCompiler(int compileThreads, PersistentPackageStore packageStore, TestFluxMetrics metrics) {
+    this.compileThreads = compileThreads;
+    this.packageStore = packageStore;
+    this.metrics = metrics;
+  }
+
+  public Collection<KnowledgePackage> compile(List<CompilationUnit> compilationUnits) {
+    CompilationErrorReport errorReport = new CompilationErrorReport();
+    Collection<KnowledgePackage> knowledgePackages;
+    if (compileThreads > 1 && compilationUnits.size() > 1) {
+      knowledgePackages = compileInParallel(compilationUnits, errorReport);
+    }
+    else {
+      knowledgePackages = compileUsingStore(compilationUnits, errorReport);
+    }
+    errorReport.throwIfErrorsFound();
+    return knowledgePackages;
+  }
+
+  private Collection<KnowledgePackage> compileUsingStore(List<CompilationUnit> compilationUnits, CompilationErrorReport errorReport) {
+    if (packageStore == null || allPrecompiled(compilationUnits)) {
+      return compileOnSingleBuilder(compilationUnits, errorReport);
+    }
+    final String key = packageStore.keyFor(compilationUnits);
+    Collection<KnowledgePackage> knowledgePackages = packageStore.load(key);
+    metrics.recordCacheLookup(TestFluxMetrics.Cache.PERSISTENT, knowledgePackages != null);
+    if (knowledgePackages == null) {
+      CompilationErrorReport unitErrors = new CompilationErrorReport();
+      knowledgePackages = compileOnSingleBuilder(compilationUnits, unitErrors);
+      if (!unitErrors.hasErrors()) {
+        packageStore.store(key, knowledgePackages);
+      }
+      errorReport.addAll(unitErrors);
+    }
+    return knowledgePackages;
+  }
+
+  private boolean allPrecompiled(List<CompilationUnit> compilationUnits) {
+    for (CompilationUnit compilationUnit : compilationUnits) {
+      if (!compilationUnit.isPrecompiled()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Collection<KnowledgePackage> compileOnSingleBuilder(List<CompilationUnit> compilationUnits, CompilationErrorReport errorReport) {
+    KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    for (CompilationUnit compilationUnit : compilationUnits) {
+      addCompilationUnit(knowledgeBuilder, compilationUnit, errorReport);
+    }
+    return knowledgeBuilder.getKnowledgePackages();
+  }
+
+  private Collection<KnowledgePackage> compileInParallel(List<CompilationUnit> compilationUnits, CompilationErrorReport errorReport) {
+    List<Future<UnitResult>> results = new ArrayList<Future<UnitResult>>(compilationUnits.size());
+    for (final CompilationUnit compilationUnit : compilationUnits) {
+      results.add(submit(new Callable<UnitResult>() {
+        @Override
+        public UnitResult call() throws Exception {
+          CompilationErrorReport unitErrors = new CompilationErrorReport();
+          return new UnitResult(compileUsingStore(Collections.singletonList(compilationUnit), unitErrors), unitErrors);
+        }
+      }));
+    }
+
+    List<KnowledgePackage> knowledgePackages = new ArrayList<KnowledgePackage>();
+    for (Future<UnitResult> result : results) {
+      final UnitResult unitResult = waitFor(result);
+      knowledgePackages.addAll(unitResult.knowledgePackages);
+      errorReport.addAll(unitResult.errorReport);
+    }
+    return knowledgePackages;
+  }
+
+  private UnitResult waitFor(Future<UnitResult> result) {
+    try {
+      return result.get();
+    }
+    catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TestFluxException("Interrupted while waiting for rule compilation to finish.", ie);
+    }
+    catch (ExecutionException ee) {
+      if (ee.getCause() instanceof TestFluxException) {
+        throw (TestFluxException) ee.getCause();
+      }
+      throw new TestFluxException("Exception occurred while compiling rules: " + ee.getCause().getMessage(), ee.getCause());
+    }
+  }
+
+  private synchronized Future<UnitResult> submit(Callable<UnitResult> task) {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(compileThreads, new CompilerThreadFactory());
+    }
+    return executor.submit(task);
+  }
+
+  /**
+   * Stops the compile threads once they have finished their current work. The compiler stays usable: compiling in
+   * parallel again starts new threads.
+   */
+  public synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  private void addCompilationUnit(KnowledgeBuilder knowledgeBuilder, CompilationUnit compilationUnit, CompilationErrorReport errorReport) {
+    for (File file : compilationUnit.getFiles()) {
+      if (compilationUnit.resourceTypeOf(file) == RuleResourceType.DSL) {
+        addIndividualFile(knowledgeBuilder, file, RuleResourceType.DSL, errorReport);
+      }
+    }
+    for (File file : compilationUnit.getFiles()) {
+      final RuleResourceType resourceType = compilationUnit.resourceTypeOf(file);
+      if (resourceType != RuleResourceType.DSL) {
+        addIndividualFile(knowledgeBuilder, file, resourceType, errorReport);
+      }
+    }
+  }
+
+  /**
+   * Adds the file and attributes all errors the builder reports beyond those already known to that file. The builder
+   * is only asked for its error list once it has errors at all.
+   */
+  private void addIndividualFile(KnowledgeBuilder knowledgeBuilder, File file, RuleResourceType resourceType, CompilationErrorReport errorReport) {
+    final int knownErrors = knowledgeBuilder.hasErrors() ? knowledgeBuilder.getErrors().size() : 0;
+    final long start = System.nanoTime();
+    try {
+      addResource(knowledgeBuilder, ResourceFactory.newFileResource(file), resourceType);
+    }
+    catch (Throwable t) {
+      errorReport.addProblem(file, "Exception occurred while adding file to knowledge base: " + t.getMessage());
+      return;
+    }
+    finally {
+      metrics.recordRuleFileCompilation(file, System.nanoTime() - start);
+    }
+    if (knowledgeBuilder.hasErrors()) {
+      List<KnowledgeBuilderError> errors = new ArrayList<KnowledgeBuilderError>(knowledgeBuilder.getErrors());
+      errorReport.addErrors(file, errors.subList(knownErrors, errors.size()));
+    }
+  }
+
+  private void addResource(KnowledgeBuilder knowledgeBuilder, Resource resource, RuleResourceType resourceType) {
+    switch (resourceType) {
+      case DSL:
+        knowledgeBuilder.add(resource, ResourceType.DSL);
+        break;
+      case DSLR:
+        knowledgeBuilder.add(resource, ResourceType.DSLR);
+        break;
+      case XLS:
+        knowledgeBuilder.add(resource, ResourceType.DTABLE, decisionTableConfiguration(DecisionTableInputType.XLS));
+        break;
+      case CSV:
+        knowledgeBuilder.add(resource, ResourceType.DTABLE, decisionTableConfiguration(DecisionTableInputType.CSV));
+        break;
+      case PKG:
+        knowledgeBuilder.add(resource, ResourceType.PKG);
+        break;
+      default:
+        knowledgeBuilder.add(resource, ResourceType.DRL);
+    }
+  }
+
+  private DecisionTableConfiguration decisionTableConfiguration(DecisionTableInputType inputType) {
+    DecisionTableConfiguration configuration = KnowledgeBuilderFactory.newDecisionTableConfiguration();
+    configuration.setInputType(inputType);
+    return configuration;
+  }
+
+  private static class UnitResult {
+
+    private final Collection<KnowledgePackage> knowledgePackages;
+    private final CompilationErrorReport errorReport;
+
+    public UnitResult(Collection<KnowledgePackage> knowledgePackages, CompilationErrorReport errorReport) {
+      this.knowledgePackages = knowledgePackages;
+      this.errorReport = errorReport;
+    }
+  }
+
+  private static class CompilerThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "testflux-compiler-" + threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
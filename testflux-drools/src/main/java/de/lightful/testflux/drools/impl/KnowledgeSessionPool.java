@@ -0,0 +1,233 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.apache.log4j.Logger;
+import org.drools.KnowledgeBase;
+import org.drools.event.process.ProcessEventListener;
+import org.drools.event.rule.AgendaEventListener;
+import org.drools.event.rule.WorkingMemoryEventListener;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.drools.runtime.process.ProcessInstance;
+import org.drools.runtime.rule.Activation;
+import org.drools.runtime.rule.AgendaFilter;
+import org.drools.runtime.rule.FactHandle;
+import org.drools.runtime.rule.WorkingMemoryEntryPoint;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out sessions of one KnowledgeBase and takes them back after a test. A returned session is reset and kept for
+ * later tests, up to <code>maxIdleSessions</code>: its event listeners are removed, process instances aborted, the facts
+ * of all entry points retracted, the agenda cleared and the globals set by the test cleared.
+ * <p/>
+ * Drools activates rules without (or with only negated) conditions once per session, through the initial fact, and a
+ * reset cannot activate them again. If a new session of the KnowledgeBase already has activations, sessions are
+ * therefore not reused: every test gets a new one and returned sessions are disposed.
+ */
+public class KnowledgeSessionPool {
+
+  private static Logger log = Logger.getLogger(KnowledgeSessionPool.class);
+
+  private final KnowledgeBase knowledgeBase;
+  private final int maxIdleSessions;
+  private final boolean reusingSessions;
+  private final LinkedList<StatefulKnowledgeSession> idleSessions = new LinkedList<StatefulKnowledgeSession>();
+  private final Map<StatefulKnowledgeSession, Borrower> borrowedSessions = new IdentityHashMap<StatefulKnowledgeSession, Borrower>();
+  private boolean disposed;
+
+  public KnowledgeSessionPool(KnowledgeBase knowledgeBase, int maxIdleSessions) {
+    this.knowledgeBase = knowledgeBase;
+    this.maxIdleSessions = maxIdleSessions;
+    this.reusingSessions = maxIdleSessions > 0 && !activatesRulesWithoutFacts(knowledgeBase);
+  }
+
+  private static boolean activatesRulesWithoutFacts(KnowledgeBase knowledgeBase) {
+    final StatefulKnowledgeSession probe = knowledgeBase.newStatefulKnowledgeSession();
+    try {
+      ActivationDetector detector = new ActivationDetector();
+      probe.fireAllRules(detector);
+      return detector.activated;
+    }
+    catch (RuntimeException e) {
+      log.debug("Cannot check new session for activations (" + e.getMessage() + "), not reusing sessions.");
+      return true;
+    }
+    finally {
+      probe.dispose();
+    }
+  }
+
+  public KnowledgeBase getKnowledgeBase() {
+    return knowledgeBase;
+  }
+
+  public boolean isReusingSessions() {
+    return reusingSessions;
+  }
+
+  public synchronized StatefulKnowledgeSession borrowSession(String testContextName, String testName) {
+    StatefulKnowledgeSession session = idleSessions.poll();
+    if (session == null) {
+      session = knowledgeBase.newStatefulKnowledgeSession();
+    }
+    final PooledSession pooledSession = PooledSession.of(session);
+    final StatefulKnowledgeSession proxy = pooledSession.newProxy();
+    borrowedSessions.put(proxy, new Borrower(testContextName, testName, pooledSession));
+    return proxy;
+  }
+
+  public void returnSession(StatefulKnowledgeSession session) {
+    final Borrower borrower;
+    synchronized (this) {
+      borrower = borrowedSessions.remove(session);
+      if (borrower == null) {
+        log.warn("Ignoring session " + session + " which was not borrowed from this pool.");
+        return;
+      }
+    }
+    final PooledSession pooledSession = borrower.session;
+    if (!reusingSessions || pooledSession.isDisposed() || !hasRoomForIdleSession() || !reset(pooledSession)) {
+      disposeQuietly(pooledSession.getTarget());
+      return;
+    }
+    synchronized (this) {
+      if (disposed || idleSessions.size() >= maxIdleSessions) {
+        disposeQuietly(pooledSession.getTarget());
+      }
+      else {
+        idleSessions.add(pooledSession.getTarget());
+      }
+    }
+  }
+
+  private synchronized boolean hasRoomForIdleSession() {
+    return !disposed && idleSessions.size() < maxIdleSessions;
+  }
+
+  /**
+   * Listeners go first, so that neither the profiler nor listeners of the test see the reset.
+   */
+  private boolean reset(PooledSession pooledSession) {
+    final StatefulKnowledgeSession session = pooledSession.getTarget();
+    try {
+      for (AgendaEventListener listener : new ArrayList<AgendaEventListener>(session.getAgendaEventListeners())) {
+        session.removeEventListener(listener);
+      }
+      for (WorkingMemoryEventListener listener : new ArrayList<WorkingMemoryEventListener>(session.getWorkingMemoryEventListeners())) {
+        session.removeEventListener(listener);
+      }
+      for (ProcessEventListener listener : new ArrayList<ProcessEventListener>(session.getProcessEventListeners())) {
+        session.removeEventListener(listener);
+      }
+      for (ProcessInstance processInstance : new ArrayList<ProcessInstance>(session.getProcessInstances())) {
+        session.abortProcessInstance(processInstance.getId());
+      }
+      retractAll(session);
+      for (WorkingMemoryEntryPoint entryPoint : session.getWorkingMemoryEntryPoints()) {
+        retractAll(entryPoint);
+      }
+      session.getAgenda().clear();
+      for (String globalIdentifier : pooledSession.getGlobalIdentifiers()) {
+        session.getGlobals().set(globalIdentifier, null);
+      }
+      return true;
+    }
+    catch (RuntimeException e) {
+      log.debug("Cannot reset returned session (" + e.getMessage() + "), disposing it.");
+      return false;
+    }
+  }
+
+  /**
+   * Retracting a fact may retract others (logically inserted ones) as well, so each handle is checked before.
+   */
+  private void retractAll(WorkingMemoryEntryPoint entryPoint) {
+    final List<FactHandle> factHandles = new ArrayList<FactHandle>(entryPoint.<FactHandle>getFactHandles());
+    for (FactHandle factHandle : factHandles) {
+      if (entryPoint.getObject(factHandle) != null) {
+        entryPoint.retract(factHandle);
+      }
+    }
+  }
+
+  /**
+   * Disposes all sessions borrowed by tests of the given test context which have not been returned, and reports the
+   * names of these tests.
+   */
+  public synchronized List<String> disposeLeakedSessions(String testContextName) {
+    List<String> leakingTests = new ArrayList<String>();
+    for (Iterator<Map.Entry<StatefulKnowledgeSession, Borrower>> iterator = borrowedSessions.entrySet().iterator(); iterator.hasNext(); ) {
+      final Map.Entry<StatefulKnowledgeSession, Borrower> borrowedSession = iterator.next();
+      if (borrowedSession.getValue().testContextName.equals(testContextName)) {
+        leakingTests.add(borrowedSession.getValue().testName);
+        disposeQuietly(borrowedSession.getValue().session.getTarget());
+        iterator.remove();
+      }
+    }
+    return leakingTests;
+  }
+
+  /**
+   * Disposes the idle sessions. Sessions still borrowed are disposed when they are returned.
+   */
+  public synchronized void dispose() {
+    disposed = true;
+    for (StatefulKnowledgeSession session : idleSessions) {
+      disposeQuietly(session);
+    }
+    idleSessions.clear();
+  }
+
+  private void disposeQuietly(StatefulKnowledgeSession session) {
+    try {
+      session.dispose();
+    }
+    catch (RuntimeException ignored) {
+      // already disposed by the test
+    }
+  }
+
+  private static class ActivationDetector implements AgendaFilter {
+
+    private boolean activated;
+
+    @Override
+    public boolean accept(Activation activation) {
+      activated = true;
+      return false;
+    }
+  }
+
+  private static class Borrower {
+
+    private final String testContextName;
+    private final String testName;
+    private final PooledSession session;
+
+    public Borrower(String testContextName, String testName, PooledSession session) {
+      this.testContextName = testContextName;
+      this.testName = testName;
+      this.session = session;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.definition.KnowledgePackage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One {@link KnowledgeSessionPool} per rule set. The pool's KnowledgeBase is assembled once from the given packages
+ * and then shared by all tests borrowing sessions for that rule set.
+ * <p/>
+ * A pool is disposed as soon as one of the cached rule sets it was assembled from leaves the
+ * {@link KnowledgePackageCache}, so that the pools do not keep alive what the cache bounds dropped (or rule sets
+ * replaced by changed rule files), and once all suites which used it have finished.
+ */
+public class KnowledgeSessionPools {
+
+  private final Map<RuleSetKey, PoolEntry> pools = new HashMap<RuleSetKey, PoolEntry>();
+
+  public KnowledgeSessionPools(KnowledgePackageCache packageCache) {
+    packageCache.addRemovalListener(new KnowledgePackageCache.RemovalListener() {
+      @Override
+      public void removed(RuleSetKey key) {
+        disposePoolsUsing(key);
+      }
+    });
+  }
+
+  /**
+   * @param key         the rule set of the pool.
+   * @param suiteName   the suite using the pool.
+   * @param packageKeys the keys the packages are cached under in the {@link KnowledgePackageCache}.
+   */
+  public synchronized KnowledgeSessionPool poolFor(RuleSetKey key, String suiteName, List<RuleSetKey> packageKeys,
+                                                   Collection<KnowledgePackage> knowledgePackages, int maxIdleSessions) {
+    PoolEntry entry = pools.get(key);
+    if (entry == null) {
+      KnowledgeBase knowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+      knowledgeBase.addKnowledgePackages(knowledgePackages);
+      entry = new PoolEntry(new KnowledgeSessionPool(knowledgeBase, maxIdleSessions), packageKeys);
+      pools.put(key, entry);
+    }
+    entry.suiteNames.add(suiteName);
+    return entry.pool;
+  }
+
+  public synchronized List<String> disposeLeakedSessions(String testContextName) {
+    List<String> leakingTests = new ArrayList<String>();
+    for (PoolEntry entry : pools.values()) {
+      leakingTests.addAll(entry.pool.disposeLeakedSessions(testContextName));
+    }
+    return leakingTests;
+  }
+
+  private synchronized void disposePoolsUsing(RuleSetKey packageKey) {
+    for (Iterator<PoolEntry> iterator = pools.values().iterator(); iterator.hasNext(); ) {
+      final PoolEntry entry = iterator.next();
+      if (entry.packageKeys.contains(packageKey)) {
+        entry.pool.dispose();
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Disposes the pools used by the given suite, unless other suites which have not finished yet use them as well.
+   */
+  public synchronized void releaseSuite(String suiteName) {
+    for (Iterator<PoolEntry> iterator = pools.values().iterator(); iterator.hasNext(); ) {
+      final PoolEntry entry = iterator.next();
+      if (entry.suiteNames.remove(suiteName) && entry.suiteNames.isEmpty()) {
+        entry.pool.dispose();
+        iterator.remove();
+      }
+    }
+  }
+
+  private static class PoolEntry {
+
+    private final KnowledgeSessionPool pool;
+    private final List<RuleSetKey> packageKeys;
+    private final Set<String> suiteNames = new HashSet<String>();
+
+    public PoolEntry(KnowledgeSessionPool pool, List<RuleSetKey> packageKeys) {
+      this.pool = pool;
+      this.packageKeys = packageKeys;
+    }
+  }
+}
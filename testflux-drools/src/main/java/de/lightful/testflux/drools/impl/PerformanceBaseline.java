@@ -0,0 +1,133 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.TestFluxException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Test durations of an earlier run, kept in a properties file (test name to milliseconds), to detect tests which got
+ * slower. The durations of the current run are collected separately and only written when asked to, so a slow creep
+ * does not silently become the new baseline.
+ */
+public class PerformanceBaseline {
+
+  private final File file;
+  private final Map<String, Double> baselineMillis = new TreeMap<String, Double>();
+  private final Map<String, Double> currentMillis = new TreeMap<String, Double>();
+
+  public PerformanceBaseline(File file) {
+    this.file = file;
+    if (file.isFile()) {
+      load();
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public synchronized boolean exists() {
+    return !baselineMillis.isEmpty();
+  }
+
+  /**
+   * @return the duration of the test in the baseline, or <code>null</code> if it is not in the baseline.
+   */
+  public synchronized Double millisFor(String testName) {
+    return baselineMillis.get(testName);
+  }
+
+  /**
+   * Records a duration of the current run. Of several invocations of the same test, the longest one is kept.
+   */
+  public synchronized void record(String testName, double millis) {
+    final Double known = currentMillis.get(testName);
+    if (known == null || known < millis) {
+      currentMillis.put(testName, millis);
+    }
+  }
+
+  /**
+   * Writes the durations of the current run, keeping baseline entries of tests which did not run.
+   */
+  public synchronized void write() throws IOException {
+    Properties properties = new Properties() {
+      /**
+       * Sorted, so the file diffs nicely between runs.
+       */
+      @Override
+      public synchronized Enumeration<Object> keys() {
+        return Collections.enumeration(new TreeSet<Object>(super.keySet()));
+      }
+    };
+    Map<String, Double> merged = new TreeMap<String, Double>(baselineMillis);
+    merged.putAll(currentMillis);
+    for (Map.Entry<String, Double> entry : merged.entrySet()) {
+      properties.setProperty(entry.getKey(), String.format(Locale.ENGLISH, "%.3f", entry.getValue()));
+    }
+    final File directory = file.getAbsoluteFile().getParentFile();
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create directory " + directory.getAbsolutePath() + ".");
+    }
+    OutputStream out = new FileOutputStream(file);
+    try {
+      properties.store(out, "testflux performance baseline: test duration in milliseconds");
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private void load() {
+    Properties properties = new Properties();
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        properties.load(in);
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      throw new TestFluxException("Cannot read performance baseline " + file.getAbsolutePath() + ": " + e.getMessage(), e);
+    }
+    for (String testName : properties.stringPropertyNames()) {
+      try {
+        baselineMillis.put(testName, Double.valueOf(properties.getProperty(testName)));
+      }
+      catch (NumberFormatException nfe) {
+        throw new TestFluxException("Performance baseline " + file.getAbsolutePath() + " contains invalid duration '" + properties.getProperty(testName) +
+                                    "' for test " + testName + ".");
+      }
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.PerformanceBudget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares what a test used against its {@link PerformanceBudget} and its baseline duration.
+ */
+public class PerformanceBudgetVerifier {
+
+  /**
+   * Baseline durations below this are too noisy to compare against.
+   */
+  private static final double MIN_BASELINE_MILLIS = 5.0;
+
+  private final PerformanceBaseline baseline;
+  private final double baselineTolerance;
+
+  /**
+   * @param baseline          durations of an earlier run, or <code>null</code> to compare against none.
+   * @param baselineTolerance slowdown relative to the baseline beyond which a test is reported as slower (but only
+   *                          fails if its budget sets {@link PerformanceBudget#maxSlowdown()}).
+   */
+  public PerformanceBudgetVerifier(PerformanceBaseline baseline, double baselineTolerance) {
+    this.baseline = baseline;
+    this.baselineTolerance = baselineTolerance;
+  }
+
+  /**
+   * @param budget   the budget of the test, or <code>null</code> if it has none.
+   * @param warnings receives a note if the test is slower than its baseline without violating its budget.
+   * @return descriptions of all budget violations, empty if there are none.
+   */
+  public List<String> verify(String testName, PerformanceBudget budget, Measurement measurement, List<String> warnings) {
+    List<String> violations = new ArrayList<String>();
+    if (budget != null) {
+      checkLimit(violations, "compile time", measurement.compileMillis, budget.maxCompileMillis(), "ms");
+      if (measurement.profiler != null) {
+        checkLimit(violations, "fireAllRules time", measurement.profiler.getFiringMillis(), budget.maxFireAllRulesMillis(), "ms");
+        checkLimit(violations, "fired activations", measurement.profiler.getFiredActivations(), budget.maxActivations(), "");
+      }
+      if (measurement.allocatedBytes >= 0) {
+        checkLimit(violations, "allocated memory", measurement.allocatedBytes, budget.maxAllocatedBytes(), " bytes");
+      }
+    }
+
+    if (baseline != null) {
+      final Double baselineMillis = baseline.millisFor(testName);
+      if (baselineMillis != null && baselineMillis >= MIN_BASELINE_MILLIS) {
+        final double slowdown = measurement.testMillis / baselineMillis;
+        final String comparison = String.format(Locale.ENGLISH, "took %.1f ms, %.2f times its baseline of %.1f ms", measurement.testMillis, slowdown, baselineMillis);
+        if (budget != null && budget.maxSlowdown() > 0 && slowdown > budget.maxSlowdown()) {
+          violations.add(String.format(Locale.ENGLISH, "%s (allowed: %.2f times)", comparison, budget.maxSlowdown()));
+        }
+        else if (slowdown > baselineTolerance) {
+          warnings.add("Test " + testName + " " + comparison + ".");
+        }
+      }
+      baseline.record(testName, measurement.testMillis);
+    }
+    return violations;
+  }
+
+  private void checkLimit(List<String> violations, String what, double actual, long limit, String unit) {
+    if (limit >= 0 && actual > limit) {
+      violations.add(String.format(Locale.ENGLISH, "%s %s%s exceeds budget of %d%s", what, formatValue(actual), unit, limit, unit));
+    }
+  }
+
+  private static String formatValue(double value) {
+    return value == Math.rint(value) ? String.valueOf((long) value) : String.format(Locale.ENGLISH, "%.1f", value);
+  }
+
+  /**
+   * What a single test invocation used.
+   */
+  public static class Measurement {
+
+    private final double testMillis;
+    private final double compileMillis;
+    private final long allocatedBytes;
+    private final RuleFiringProfiler profiler;
+
+    /**
+     * @param allocatedBytes bytes allocated by the test thread, or <code>-1</code> if unknown.
+     * @param profiler       the profiler attached to the test's sessions, or <code>null</code> if there was none.
+     */
+    public Measurement(double testMillis, double compileMillis, long allocatedBytes, RuleFiringProfiler profiler) {
+      this.testMillis = testMillis;
+      this.compileMillis = compileMillis;
+      this.allocatedBytes = allocatedBytes;
+      this.profiler = profiler;
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.TestFluxException;
+import org.apache.log4j.Logger;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps compiled knowledge packages on disk, so that unchanged rule files need not be compiled again in the next JVM.
+ * An entry is keyed by the content of its rule files together with a {@link ClasspathFingerprint}; entries are never
+ * updated in place, stale ones simply stop being looked up. Entry file names start with a digest of the fingerprint, and
+ * the first store of a JVM deletes the entries of other fingerprints (and temporary files left behind by writers which
+ * did not finish), so the directory does not grow with every rebuild of the test classes.
+ * <p/>
+ * Several JVMs may use the same directory at once (forked shards, the maven plugin): entries are written to temporary
+ * files of their own and then renamed.
+ */
+public class PersistentPackageStore {
+
+  private static Logger log = Logger.getLogger(PersistentPackageStore.class);
+
+  private static final String ENTRY_SUFFIX = ".pkgs";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+  private static final int FINGERPRINT_PREFIX_LENGTH = 12;
+  private static final long ABANDONED_TEMPORARY_MILLIS = 60L * 60L * 1000L;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final File directory;
+  private final String fingerprint;
+  private final String entryPrefix;
+  private boolean pruned;
+
+  public PersistentPackageStore(File directory, String fingerprint) {
+    this.directory = directory;
+    this.fingerprint = fingerprint;
+    MessageDigest digest = newDigest();
+    update(digest, fingerprint);
+    this.entryPrefix = toHex(digest.digest()).substring(0, FINGERPRINT_PREFIX_LENGTH) + "-";
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public String keyFor(List<CompilationUnit> compilationUnits) {
+    MessageDigest digest = newDigest();
+    update(digest, fingerprint);
+    for (CompilationUnit compilationUnit : compilationUnits) {
+      for (File file : compilationUnit.getFiles()) {
+        update(digest, file.getName());
+        update(digest, compilationUnit.resourceTypeOf(file).name());
+        digest.update(readFully(file));
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * @return the packages stored under <code>key</code>, or <code>null</code> if there are none (or they are unreadable).
+   */
+  public Collection<KnowledgePackage> load(String key) {
+    final File entry = entryFile(key);
+    if (!entry.isFile()) {
+      return null;
+    }
+    try {
+      Collection<KnowledgePackage> knowledgePackages = readEntry(entry);
+      log.debug("Loaded compiled packages from " + entry.getAbsolutePath() + ".");
+      return knowledgePackages;
+    }
+    catch (Exception e) {
+      log.warn("Discarding unreadable cache entry " + entry.getAbsolutePath() + ": " + e.getMessage());
+      entry.delete();
+      return null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Collection<KnowledgePackage> readEntry(File entry) throws IOException, ClassNotFoundException {
+    ObjectInputStream inputStream = new ContextClassLoaderObjectInputStream(new ByteBufferInputStream(mapReadOnly(entry)));
+    try {
+      return (Collection<KnowledgePackage>) inputStream.readObject();
+    }
+    finally {
+      inputStream.close();
+    }
+  }
+
+  public void store(String key, Collection<KnowledgePackage> knowledgePackages) {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      log.warn("Cannot create package cache directory " + directory.getAbsolutePath() + ", not caching compiled rules.");
+      return;
+    }
+    pruneStaleEntries();
+    final File entry = entryFile(key);
+    File temporaryEntry = null;
+    ObjectOutputStream outputStream = null;
+    try {
+      temporaryEntry = File.createTempFile(entryPrefix + key, TEMPORARY_SUFFIX, directory);
+      outputStream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryEntry)));
+      outputStream.writeObject(new ArrayList<KnowledgePackage>(knowledgePackages));
+      outputStream.close();
+      outputStream = null;
+      if (!temporaryEntry.renameTo(entry)) {
+        entry.delete();
+        if (!temporaryEntry.renameTo(entry)) {
+          log.warn("Cannot move " + temporaryEntry.getAbsolutePath() + " to " + entry.getAbsolutePath() + ".");
+        }
+      }
+    }
+    catch (IOException e) {
+      log.warn("Cannot write compiled packages to " + entry.getAbsolutePath() + ": " + e.getMessage());
+    }
+    finally {
+      closeQuietly(outputStream);
+      if (temporaryEntry != null) {
+        temporaryEntry.delete();
+      }
+    }
+  }
+
+  private synchronized void pruneStaleEntries() {
+    if (pruned) {
+      return;
+    }
+    pruned = true;
+    final File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    final long abandonedBefore = System.currentTimeMillis() - ABANDONED_TEMPORARY_MILLIS;
+    for (File file : files) {
+      final String name = file.getName();
+      final boolean staleEntry = name.endsWith(ENTRY_SUFFIX) && !name.startsWith(entryPrefix);
+      final boolean abandonedTemporary = name.endsWith(TEMPORARY_SUFFIX) && file.lastModified() < abandonedBefore;
+      if ((staleEntry || abandonedTemporary) && file.delete()) {
+        log.debug("Deleted stale cache file " + file.getAbsolutePath() + ".");
+      }
+    }
+  }
+
+  private File entryFile(String key) {
+    return new File(directory, entryPrefix + key + ENTRY_SUFFIX);
+  }
+
+  private ByteBuffer mapReadOnly(File file) throws IOException {
+    FileInputStream inputStream = new FileInputStream(file);
+    try {
+      final FileChannel channel = inputStream.getChannel();
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    finally {
+      inputStream.close();
+    }
+  }
+
+  private byte[] readFully(File file) {
+    try {
+      final ByteBuffer buffer = mapReadOnly(file);
+      byte[] content = new byte[buffer.remaining()];
+      buffer.get(content);
+      return content;
+    }
+    catch (IOException e) {
+      throw new TestFluxException("Cannot read rule file " + file.getAbsolutePath() + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new TestFluxException("SHA-1 message digest not available.", e);
+    }
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    try {
+      digest.update(value.getBytes("UTF-8"));
+      digest.update((byte) 0);
+    }
+    catch (IOException e) {
+      throw new TestFluxException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+      hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+    }
+    return new String(hex);
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      }
+      catch (IOException ignored) {
+      }
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      final int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+  private static class ContextClassLoaderObjectInputStream extends ObjectInputStream {
+
+    public ContextClassLoaderObjectInputStream(InputStream inputStream) throws IOException {
+      super(inputStream);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass description) throws IOException, ClassNotFoundException {
+      final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+      if (contextClassLoader != null) {
+        try {
+          return Class.forName(description.getName(), false, contextClassLoader);
+        }
+        catch (ClassNotFoundException ignored) {
+          // fall back to default resolution
+        }
+      }
+      return super.resolveClass(description);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.drools.runtime.Globals;
+import org.drools.runtime.StatefulKnowledgeSession;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A proxy in front of a session borrowed from a {@link KnowledgeSessionPool}. It remembers the globals the test sets,
+ * as Drools cannot list the globals of a session, and whether the test disposed the session itself.
+ */
+public class PooledSession implements InvocationHandler {
+
+  private final StatefulKnowledgeSession target;
+  private final Set<String> globalIdentifiers = new HashSet<String>();
+  private volatile boolean disposed;
+
+  private PooledSession(StatefulKnowledgeSession target) {
+    this.target = target;
+  }
+
+  public static PooledSession of(StatefulKnowledgeSession session) {
+    return new PooledSession(session);
+  }
+
+  public StatefulKnowledgeSession getTarget() {
+    return target;
+  }
+
+  public StatefulKnowledgeSession newProxy() {
+    return (StatefulKnowledgeSession) Proxy.newProxyInstance(StatefulKnowledgeSession.class.getClassLoader(),
+                                                             new Class[] {StatefulKnowledgeSession.class}, this);
+  }
+
+  public synchronized Set<String> getGlobalIdentifiers() {
+    return new HashSet<String>(globalIdentifiers);
+  }
+
+  public boolean isDisposed() {
+    return disposed;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return invokeObjectMethod(proxy, method, args);
+    }
+    if ("setGlobal".equals(method.getName())) {
+      rememberGlobal((String) args[0]);
+    }
+    else if ("dispose".equals(method.getName())) {
+      disposed = true;
+    }
+    final Object returnValue;
+    try {
+      returnValue = method.invoke(target, args);
+    }
+    catch (InvocationTargetException ite) {
+      throw ite.getCause();
+    }
+    if ("getGlobals".equals(method.getName())) {
+      return recordingGlobals((Globals) returnValue);
+    }
+    return returnValue;
+  }
+
+  private synchronized void rememberGlobal(String identifier) {
+    globalIdentifiers.add(identifier);
+  }
+
+  private Globals recordingGlobals(final Globals globals) {
+    return new Globals() {
+      @Override
+      public Object get(String identifier) {
+        return globals.get(identifier);
+      }
+
+      @Override
+      public void set(String identifier, Object value) {
+        rememberGlobal(identifier);
+        globals.set(identifier, value);
+      }
+
+      @Override
+      public void setDelegate(Globals delegate) {
+        globals.setDelegate(delegate);
+      }
+    };
+  }
+
+  private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+    if ("equals".equals(method.getName())) {
+      return proxy == args[0];
+    }
+    if ("hashCode".equals(method.getName())) {
+      return System.identityHashCode(proxy);
+    }
+    return "Pooled[" + target + "]";
+  }
+}
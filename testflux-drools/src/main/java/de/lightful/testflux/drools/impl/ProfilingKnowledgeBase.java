@@ -0,0 +1,78 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.drools.KnowledgeBase;
+import org.drools.event.KnowledgeRuntimeEventManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * A proxy in front of a KnowledgeBase which attaches a {@link RuleFiringProfiler} to every (stateful or stateless)
+ * session created from it. The sessions are handed out as {@link ProfilingSession}s, so rule firing is timed, too.
+ */
+public class ProfilingKnowledgeBase implements InvocationHandler {
+
+  private final KnowledgeBase target;
+  private final RuleFiringProfiler profiler;
+
+  private ProfilingKnowledgeBase(KnowledgeBase target, RuleFiringProfiler profiler) {
+    this.target = target;
+    this.profiler = profiler;
+  }
+
+  public static KnowledgeBase wrap(KnowledgeBase target, RuleFiringProfiler profiler) {
+    return (KnowledgeBase) Proxy.newProxyInstance(KnowledgeBase.class.getClassLoader(), new Class[] {KnowledgeBase.class},
+                                                  new ProfilingKnowledgeBase(target, profiler));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return invokeObjectMethod(proxy, method, args);
+    }
+    final Object result;
+    try {
+      result = method.invoke(target, args);
+    }
+    catch (InvocationTargetException ite) {
+      throw ite.getCause();
+    }
+    if (method.getName().startsWith("new") && result instanceof KnowledgeRuntimeEventManager) {
+      profiler.attachTo((KnowledgeRuntimeEventManager) result);
+      return wrapSession(result, method.getReturnType());
+    }
+    return result;
+  }
+
+  private <T> T wrapSession(Object session, Class<T> sessionInterface) {
+    return ProfilingSession.wrap(sessionInterface.cast(session), sessionInterface, profiler);
+  }
+
+  private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+    if ("equals".equals(method.getName())) {
+      return proxy == args[0];
+    }
+    if ("hashCode".equals(method.getName())) {
+      return System.identityHashCode(proxy);
+    }
+    return "Profiling[" + target + "]";
+  }
+}
@@ -0,0 +1,72 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * A proxy in front of a (stateful or stateless) session which reports the time spent firing rules to a
+ * {@link RuleFiringProfiler}.
+ */
+public class ProfilingSession implements InvocationHandler {
+
+  private final Object target;
+  private final RuleFiringProfiler profiler;
+
+  private ProfilingSession(Object target, RuleFiringProfiler profiler) {
+    this.target = target;
+    this.profiler = profiler;
+  }
+
+  public static <T> T wrap(T session, Class<T> sessionInterface, RuleFiringProfiler profiler) {
+    return sessionInterface.cast(Proxy.newProxyInstance(sessionInterface.getClassLoader(), new Class[] {sessionInterface},
+                                                        new ProfilingSession(session, profiler)));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return invokeObjectMethod(proxy, method, args);
+    }
+    final boolean firesRules = method.getName().startsWith("fire") || "execute".equals(method.getName());
+    final long start = System.nanoTime();
+    try {
+      return method.invoke(target, args);
+    }
+    catch (InvocationTargetException ite) {
+      throw ite.getCause();
+    }
+    finally {
+      if (firesRules) {
+        profiler.recordFiring(System.nanoTime() - start);
+      }
+    }
+  }
+
+  private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+    if ("equals".equals(method.getName())) {
+      return proxy == args[0];
+    }
+    if ("hashCode".equals(method.getName())) {
+      return System.identityHashCode(proxy);
+    }
+    return "Profiling[" + target + "]";
+  }
+}
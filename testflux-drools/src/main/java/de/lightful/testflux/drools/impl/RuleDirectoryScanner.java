@@ -0,0 +1,153 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists the rule files below a directory. Listings are cached and reused as long as none of the scanned directories
+ * has been modified since (adding, removing or renaming an entry changes the modification time of its directory), so
+ * a rule tree is walked once per run instead of once per test. Files are returned sorted by their relative path.
+ */
+public class RuleDirectoryScanner {
+
+  private final Map<ScanRequest, Listing> listings = new HashMap<ScanRequest, Listing>();
+
+  public List<File> scan(File directory, boolean recursive, List<String> includes, List<String> excludes) {
+    final ScanRequest request = new ScanRequest(directory.getAbsoluteFile(), recursive, includes, excludes);
+    Listing listing;
+    synchronized (this) {
+      listing = listings.get(request);
+    }
+    if (listing == null || listing.isOutdated()) {
+      listing = walk(request);
+      synchronized (this) {
+        listings.put(request, listing);
+      }
+    }
+    return listing.files;
+  }
+
+  private Listing walk(ScanRequest request) {
+    final List<GlobPattern> includes = toPatterns(request.includes);
+    final List<GlobPattern> excludes = toPatterns(request.excludes);
+    Map<File, Long> directoryStamps = new HashMap<File, Long>();
+    List<File> files = new ArrayList<File>();
+    walk(request.directory, "", request.recursive, includes, excludes, directoryStamps, files);
+    return new Listing(Collections.unmodifiableList(files), directoryStamps);
+  }
+
+  private void walk(File directory, String relativePath, boolean recursive, List<GlobPattern> includes, List<GlobPattern> excludes,
+                    Map<File, Long> directoryStamps, List<File> files) {
+    directoryStamps.put(directory, directory.lastModified());
+    final File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    Arrays.sort(children);
+    for (File child : children) {
+      final String childPath = relativePath + child.getName();
+      if (child.isDirectory()) {
+        if (recursive) {
+          walk(child, childPath + "/", true, includes, excludes, directoryStamps, files);
+        }
+      }
+      else if (child.isFile() && matchesAny(includes, childPath) && !matchesAny(excludes, childPath)) {
+        files.add(child);
+      }
+    }
+  }
+
+  private boolean matchesAny(List<GlobPattern> patterns, String relativePath) {
+    for (GlobPattern pattern : patterns) {
+      if (pattern.matches(relativePath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private List<GlobPattern> toPatterns(List<String> globs) {
+    List<GlobPattern> patterns = new ArrayList<GlobPattern>(globs.size());
+    for (String glob : globs) {
+      patterns.add(new GlobPattern(glob));
+    }
+    return patterns;
+  }
+
+  private static class Listing {
+
+    private final List<File> files;
+    private final Map<File, Long> directoryStamps;
+
+    public Listing(List<File> files, Map<File, Long> directoryStamps) {
+      this.files = files;
+      this.directoryStamps = directoryStamps;
+    }
+
+    public boolean isOutdated() {
+      for (Map.Entry<File, Long> directoryStamp : directoryStamps.entrySet()) {
+        if (directoryStamp.getKey().lastModified() != directoryStamp.getValue()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static class ScanRequest {
+
+    private final File directory;
+    private final boolean recursive;
+    private final List<String> includes;
+    private final List<String> excludes;
+
+    public ScanRequest(File directory, boolean recursive, List<String> includes, List<String> excludes) {
+      this.directory = directory;
+      this.recursive = recursive;
+      this.includes = new ArrayList<String>(includes);
+      this.excludes = new ArrayList<String>(excludes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      ScanRequest other = (ScanRequest) o;
+      return recursive == other.recursive && directory.equals(other.directory) && includes.equals(other.includes) && excludes.equals(other.excludes);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = directory.hashCode();
+      result = 31 * result + (recursive ? 1 : 0);
+      result = 31 * result + includes.hashCode();
+      result = 31 * result + excludes.hashCode();
+      return result;
+    }
+  }
+}
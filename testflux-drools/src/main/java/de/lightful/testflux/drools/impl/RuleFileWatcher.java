@@ -0,0 +1,125 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects created, modified and deleted files by comparing modification times between calls to
+ * {@link #changedFiles()}. Watches individual files and everything below the given directories.
+ */
+public class RuleFileWatcher {
+
+  private Collection<File> watchedLocations;
+  private Map<File, Long> knownFiles;
+
+  public RuleFileWatcher(Collection<File> watchedLocations) {
+    this.watchedLocations = new ArrayList<File>(watchedLocations);
+    this.knownFiles = snapshot();
+  }
+
+  /**
+   * Changes the watched locations. Files below locations watched for the first time are taken as they are now, not
+   * reported as changed. Locations watched before keep their known state, so changes made since the last call to
+   * {@link #changedFiles()} (e.g. while tests were rerun) are still reported by the next one.
+   */
+  public void watch(Collection<File> locations) {
+    List<File> newLocations = new ArrayList<File>();
+    for (File location : locations) {
+      if (!watchedLocations.contains(location)) {
+        newLocations.add(location);
+      }
+    }
+    Map<File, Long> files = new HashMap<File, Long>();
+    for (Map.Entry<File, Long> knownFile : knownFiles.entrySet()) {
+      if (isBelowAny(knownFile.getKey(), locations)) {
+        files.put(knownFile.getKey(), knownFile.getValue());
+      }
+    }
+    for (Map.Entry<File, Long> newFile : snapshot(newLocations).entrySet()) {
+      if (!files.containsKey(newFile.getKey())) {
+        files.put(newFile.getKey(), newFile.getValue());
+      }
+    }
+    this.watchedLocations = new ArrayList<File>(locations);
+    this.knownFiles = files;
+  }
+
+  private static boolean isBelowAny(File file, Collection<File> locations) {
+    for (File location : locations) {
+      final String locationPath = location.getAbsolutePath();
+      if (file.getPath().equals(locationPath) || file.getPath().startsWith(locationPath + File.separator)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public List<File> changedFiles() {
+    final Map<File, Long> currentFiles = snapshot();
+    List<File> changedFiles = new ArrayList<File>();
+    for (Map.Entry<File, Long> currentFile : currentFiles.entrySet()) {
+      if (!currentFile.getValue().equals(knownFiles.get(currentFile.getKey()))) {
+        changedFiles.add(currentFile.getKey());
+      }
+    }
+    for (File knownFile : knownFiles.keySet()) {
+      if (!currentFiles.containsKey(knownFile)) {
+        changedFiles.add(knownFile);
+      }
+    }
+    knownFiles = currentFiles;
+    return changedFiles;
+  }
+
+  private Map<File, Long> snapshot() {
+    return snapshot(watchedLocations);
+  }
+
+  private static Map<File, Long> snapshot(Collection<File> locations) {
+    Map<File, Long> files = new HashMap<File, Long>();
+    for (File location : locations) {
+      if (location.isDirectory()) {
+        addFilesBelow(location.getAbsoluteFile(), files);
+      }
+      else if (location.isFile()) {
+        files.put(location.getAbsoluteFile(), location.lastModified());
+      }
+    }
+    return files;
+  }
+
+  private static void addFilesBelow(File directory, Map<File, Long> files) {
+    final File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        addFilesBelow(child, files);
+      }
+      else {
+        files.put(child, child.lastModified());
+      }
+    }
+  }
+}
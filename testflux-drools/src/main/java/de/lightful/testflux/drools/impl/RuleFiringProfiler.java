@@ -0,0 +1,200 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.drools.event.KnowledgeRuntimeEventManager;
+import org.drools.event.rule.ActivationCancelledEvent;
+import org.drools.event.rule.ActivationCreatedEvent;
+import org.drools.event.rule.AfterActivationFiredEvent;
+import org.drools.event.rule.AgendaEventListener;
+import org.drools.event.rule.AgendaGroupPoppedEvent;
+import org.drools.event.rule.AgendaGroupPushedEvent;
+import org.drools.event.rule.BeforeActivationFiredEvent;
+import org.drools.event.rule.ObjectInsertedEvent;
+import org.drools.event.rule.ObjectRetractedEvent;
+import org.drools.event.rule.ObjectUpdatedEvent;
+import org.drools.event.rule.WorkingMemoryEventListener;
+import org.drools.runtime.rule.Activation;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records what the rule engine does for one test: per rule how many activations were created, cancelled and fired and
+ * how long its consequences (RHS) took, plus how many facts were inserted, updated and retracted. Attached to every
+ * session the test uses. The total time spent firing rules is reported by {@link ProfilingSession}.
+ */
+public class RuleFiringProfiler implements AgendaEventListener, WorkingMemoryEventListener {
+
+  private final Map<String, RuleStatistics> statisticsByRule = new TreeMap<String, RuleStatistics>();
+  private final Map<Activation, Long> firingSince = new IdentityHashMap<Activation, Long>();
+  private final FactStatistics factStatistics = new FactStatistics();
+  private long firingNanos;
+
+  public void attachTo(KnowledgeRuntimeEventManager session) {
+    session.addEventListener((AgendaEventListener) this);
+    session.addEventListener((WorkingMemoryEventListener) this);
+  }
+
+  @Override
+  public synchronized void activationCreated(ActivationCreatedEvent event) {
+    statisticsFor(event.getActivation()).created++;
+  }
+
+  @Override
+  public synchronized void activationCancelled(ActivationCancelledEvent event) {
+    statisticsFor(event.getActivation()).cancelled++;
+  }
+
+  @Override
+  public synchronized void beforeActivationFired(BeforeActivationFiredEvent event) {
+    firingSince.put(event.getActivation(), System.nanoTime());
+  }
+
+  @Override
+  public synchronized void afterActivationFired(AfterActivationFiredEvent event) {
+    final Long start = firingSince.remove(event.getActivation());
+    RuleStatistics statistics = statisticsFor(event.getActivation());
+    statistics.fired++;
+    if (start != null) {
+      statistics.rhsNanos += System.nanoTime() - start;
+    }
+  }
+
+  @Override
+  public void agendaGroupPopped(AgendaGroupPoppedEvent event) {
+  }
+
+  @Override
+  public void agendaGroupPushed(AgendaGroupPushedEvent event) {
+  }
+
+  @Override
+  public synchronized void objectInserted(ObjectInsertedEvent event) {
+    factStatistics.inserted++;
+  }
+
+  @Override
+  public synchronized void objectUpdated(ObjectUpdatedEvent event) {
+    factStatistics.updated++;
+  }
+
+  @Override
+  public synchronized void objectRetracted(ObjectRetractedEvent event) {
+    factStatistics.retracted++;
+  }
+
+  public synchronized void recordFiring(long nanos) {
+    firingNanos += nanos;
+  }
+
+  public synchronized double getFiringMillis() {
+    return firingNanos / 1000000.0;
+  }
+
+  public synchronized long getFiredActivations() {
+    long fired = 0;
+    for (RuleStatistics statistics : statisticsByRule.values()) {
+      fired += statistics.fired;
+    }
+    return fired;
+  }
+
+  /**
+   * @return a copy of the statistics, by rule name qualified with its package.
+   */
+  public synchronized Map<String, RuleStatistics> getRuleStatistics() {
+    Map<String, RuleStatistics> copy = new TreeMap<String, RuleStatistics>();
+    for (Map.Entry<String, RuleStatistics> entry : statisticsByRule.entrySet()) {
+      copy.put(entry.getKey(), new RuleStatistics().add(entry.getValue()));
+    }
+    return copy;
+  }
+
+  public synchronized FactStatistics getFactStatistics() {
+    return new FactStatistics().add(factStatistics);
+  }
+
+  private RuleStatistics statisticsFor(Activation activation) {
+    final String ruleName = activation.getRule().getPackageName() + "." + activation.getRule().getName();
+    RuleStatistics statistics = statisticsByRule.get(ruleName);
+    if (statistics == null) {
+      statistics = new RuleStatistics();
+      statisticsByRule.put(ruleName, statistics);
+    }
+    return statistics;
+  }
+
+  public static class RuleStatistics {
+
+    private long created;
+    private long cancelled;
+    private long fired;
+    private long rhsNanos;
+
+    public RuleStatistics add(RuleStatistics other) {
+      created += other.created;
+      cancelled += other.cancelled;
+      fired += other.fired;
+      rhsNanos += other.rhsNanos;
+      return this;
+    }
+
+    public long getCreated() {
+      return created;
+    }
+
+    public long getCancelled() {
+      return cancelled;
+    }
+
+    public long getFired() {
+      return fired;
+    }
+
+    public double getRhsMillis() {
+      return rhsNanos / 1000000.0;
+    }
+  }
+
+  public static class FactStatistics {
+
+    private long inserted;
+    private long updated;
+    private long retracted;
+
+    public FactStatistics add(FactStatistics other) {
+      inserted += other.inserted;
+      updated += other.updated;
+      retracted += other.retracted;
+      return this;
+    }
+
+    public long getInserted() {
+      return inserted;
+    }
+
+    public long getUpdated() {
+      return updated;
+    }
+
+    public long getRetracted() {
+      return retracted;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static de.lightful.testflux.drools.impl.TestFluxMetrics.csv;
+import static de.lightful.testflux.drools.impl.TestFluxMetrics.format;
+import static de.lightful.testflux.drools.impl.TestFluxMetrics.quote;
+
+/**
+ * Collects the {@link RuleFiringProfiler} results of all tests, per test and summed up for the suite. All methods may
+ * be called concurrently.
+ */
+public class RuleProfileReport {
+
+  private final Map<String, Map<String, RuleFiringProfiler.RuleStatistics>> rulesByTest = new TreeMap<String, Map<String, RuleFiringProfiler.RuleStatistics>>();
+  private final Map<String, RuleFiringProfiler.FactStatistics> factsByTest = new TreeMap<String, RuleFiringProfiler.FactStatistics>();
+
+  public synchronized void record(String testName, RuleFiringProfiler profiler) {
+    Map<String, RuleFiringProfiler.RuleStatistics> rules = rulesByTest.get(testName);
+    if (rules == null) {
+      rules = new TreeMap<String, RuleFiringProfiler.RuleStatistics>();
+      rulesByTest.put(testName, rules);
+      factsByTest.put(testName, new RuleFiringProfiler.FactStatistics());
+    }
+    addAll(rules, profiler.getRuleStatistics());
+    factsByTest.get(testName).add(profiler.getFactStatistics());
+  }
+
+  public synchronized boolean isEmpty() {
+    return rulesByTest.isEmpty();
+  }
+
+  public synchronized Map<String, RuleFiringProfiler.RuleStatistics> totalsByRule() {
+    Map<String, RuleFiringProfiler.RuleStatistics> totals = new TreeMap<String, RuleFiringProfiler.RuleStatistics>();
+    for (Map<String, RuleFiringProfiler.RuleStatistics> rules : rulesByTest.values()) {
+      addAll(totals, rules);
+    }
+    return totals;
+  }
+
+  public synchronized List<Map.Entry<String, RuleFiringProfiler.RuleStatistics>> mostFiredRules(int count) {
+    List<Map.Entry<String, RuleFiringProfiler.RuleStatistics>> rules = new ArrayList<Map.Entry<String, RuleFiringProfiler.RuleStatistics>>();
+    for (Map.Entry<String, RuleFiringProfiler.RuleStatistics> entry : totalsByRule().entrySet()) {
+      rules.add(new AbstractMap.SimpleImmutableEntry<String, RuleFiringProfiler.RuleStatistics>(entry));
+    }
+    Collections.sort(rules, new Comparator<Map.Entry<String, RuleFiringProfiler.RuleStatistics>>() {
+      @Override
+      public int compare(Map.Entry<String, RuleFiringProfiler.RuleStatistics> first, Map.Entry<String, RuleFiringProfiler.RuleStatistics> second) {
+        final long firstFired = first.getValue().getFired();
+        final long secondFired = second.getValue().getFired();
+        return secondFired < firstFired ? -1 : (secondFired == firstFired ? 0 : 1);
+      }
+    });
+    return rules.subList(0, Math.min(count, rules.size()));
+  }
+
+  public synchronized void writeJson(File file) throws IOException {
+    PrintWriter out = new PrintWriter(file, "UTF-8");
+    try {
+      out.println("{");
+      out.println("  \"rules\": " + toJson(totalsByRule(), "    ") + ",");
+      out.println("  \"tests\": [");
+      boolean first = true;
+      for (Map.Entry<String, Map<String, RuleFiringProfiler.RuleStatistics>> entry : rulesByTest.entrySet()) {
+        out.print(first ? "" : ",\n");
+        first = false;
+        final RuleFiringProfiler.FactStatistics facts = factsByTest.get(entry.getKey());
+        out.print("    {\"name\": " + quote(entry.getKey()) + ", \"facts\": {\"inserted\": " + facts.getInserted() + ", \"updated\": " + facts.getUpdated() +
+                  ", \"retracted\": " + facts.getRetracted() + "}, \"rules\": " + toJson(entry.getValue(), "      ") + "}");
+      }
+      out.println();
+      out.println("  ]");
+      out.println("}");
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  public synchronized void writeCsv(File file) throws IOException {
+    PrintWriter out = new PrintWriter(file, "UTF-8");
+    try {
+      out.println("test,rule,created,cancelled,fired,rhs_ms");
+      for (Map.Entry<String, RuleFiringProfiler.RuleStatistics> rule : totalsByRule().entrySet()) {
+        out.println("," + toCsv(rule.getKey(), rule.getValue()));
+      }
+      for (Map.Entry<String, Map<String, RuleFiringProfiler.RuleStatistics>> entry : rulesByTest.entrySet()) {
+        for (Map.Entry<String, RuleFiringProfiler.RuleStatistics> rule : entry.getValue().entrySet()) {
+          out.println(csv(entry.getKey()) + "," + toCsv(rule.getKey(), rule.getValue()));
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static void addAll(Map<String, RuleFiringProfiler.RuleStatistics> totals, Map<String, RuleFiringProfiler.RuleStatistics> rules) {
+    for (Map.Entry<String, RuleFiringProfiler.RuleStatistics> entry : rules.entrySet()) {
+      RuleFiringProfiler.RuleStatistics total = totals.get(entry.getKey());
+      if (total == null) {
+        total = new RuleFiringProfiler.RuleStatistics();
+        totals.put(entry.getKey(), total);
+      }
+      total.add(entry.getValue());
+    }
+  }
+
+  private static String toJson(Map<String, RuleFiringProfiler.RuleStatistics> rules, String indent) {
+    StringBuilder builder = new StringBuilder("[");
+    for (Map.Entry<String, RuleFiringProfiler.RuleStatistics> entry : rules.entrySet()) {
+      final RuleFiringProfiler.RuleStatistics statistics = entry.getValue();
+      builder.append(builder.length() > 1 ? "," : "").append("\n").append(indent)
+          .append("{\"rule\": ").append(quote(entry.getKey()))
+          .append(", \"created\": ").append(statistics.getCreated())
+          .append(", \"cancelled\": ").append(statistics.getCancelled())
+          .append(", \"fired\": ").append(statistics.getFired())
+          .append(", \"rhsMillis\": ").append(format(statistics.getRhsMillis())).append("}");
+    }
+    return builder.append("]").toString();
+  }
+
+  private static String toCsv(String rule, RuleFiringProfiler.RuleStatistics statistics) {
+    return csv(rule) + "," + statistics.getCreated() + "," + statistics.getCancelled() + "," + statistics.getFired() + "," + format(statistics.getRhsMillis());
+  }
+}
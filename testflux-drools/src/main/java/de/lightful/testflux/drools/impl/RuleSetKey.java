@@ -0,0 +1,69 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Identifies a set of compiled rule files. Two keys are equal if they name the same files in the same order and none
+ * of the files has been modified in between (judged by modification time and length). Files compiled as different
+ * {@link de.lightful.testflux.drools.RuleResourceType}s make different keys.
+ */
+public class RuleSetKey {
+
+  private final List<String> fileStamps;
+  private final int hashCode;
+
+  private RuleSetKey(List<String> fileStamps) {
+    this.fileStamps = Collections.unmodifiableList(fileStamps);
+    this.hashCode = fileStamps.hashCode();
+  }
+
+  public static RuleSetKey forUnits(List<CompilationUnit> compilationUnits) {
+    List<String> fileStamps = new ArrayList<String>();
+    for (CompilationUnit compilationUnit : compilationUnits) {
+      for (File file : compilationUnit.getFiles()) {
+        fileStamps.add(file.getAbsolutePath() + "@" + file.lastModified() + ":" + file.length() + ":" + compilationUnit.resourceTypeOf(file));
+      }
+    }
+    return new RuleSetKey(fileStamps);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    return fileStamps.equals(((RuleSetKey) o).fileStamps);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    return "RuleSetKey" + fileStamps;
+  }
+}
@@ -0,0 +1,134 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.RuleSource;
+import de.lightful.testflux.drools.RulesBaseDirectory;
+import de.lightful.testflux.drools.TestFluxException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Turns {@link RuleSource} annotations into the rule files they denote.
+ */
+public class RuleSourceResolver {
+
+  private final String rulesRootDirectory;
+  private final RuleDirectoryScanner directoryScanner;
+
+  public RuleSourceResolver(String rulesRootDirectory) {
+    this(rulesRootDirectory, new RuleDirectoryScanner());
+  }
+
+  public RuleSourceResolver(String rulesRootDirectory, RuleDirectoryScanner directoryScanner) {
+    this.rulesRootDirectory = rulesRootDirectory;
+    this.directoryScanner = directoryScanner;
+  }
+
+  public List<CompilationUnit> resolve(RulesBaseDirectory rulesBaseDirectory, RuleSource[] ruleSources) {
+    List<CompilationUnit> compilationUnits = new ArrayList<CompilationUnit>(ruleSources.length);
+    for (RuleSource ruleSource : ruleSources) {
+      compilationUnits.add(resolve(rulesBaseDirectory, ruleSource));
+    }
+    return compilationUnits;
+  }
+
+  public CompilationUnit resolve(RulesBaseDirectory rulesBaseDirectory, RuleSource ruleSource) {
+    boolean isForDirectory = isValueAvailable(ruleSource.directory());
+    boolean isForIndividualFile = isValueAvailable(ruleSource.file());
+    boolean conflict = isForDirectory && isForIndividualFile;
+    if (conflict) {
+      throw new TestFluxException("@" + RuleSource.class.getSimpleName() + " cannot be used to specify both directory '" + ruleSource.directory() + "'" +
+                                  " and file '" + ruleSource.file() + "' at the same time.");
+    }
+
+    if (isForDirectory) {
+      final File directory = fileFromBaseDirectory(ruleSource.directory(), determineBaseDirectory(rulesBaseDirectory));
+      return new CompilationUnit("directory " + ruleSource.directory(), allFilesFromDirectory(ruleSource, directory), directory, ruleSource.type());
+    }
+    else if (isForIndividualFile) {
+      return new CompilationUnit("file " + ruleSource.file(), individualFileFromBaseDirectory(ruleSource.file(), rulesBaseDirectory), null,
+                                 ruleSource.type());
+    }
+    return new CompilationUnit("empty @" + RuleSource.class.getSimpleName(), Collections.<File>emptyList());
+  }
+
+  /**
+   * @return the file with the given name in the base directory, which need not exist.
+   */
+  public File resolveFile(RulesBaseDirectory rulesBaseDirectory, String filename) {
+    return fileFromBaseDirectory(filename, determineBaseDirectory(rulesBaseDirectory));
+  }
+
+  private List<File> allFilesFromDirectory(RuleSource ruleSource, File directory) {
+    if (!directory.exists()) {
+      throw new TestFluxException("Directory " + directory.getAbsolutePath() + " given by @" + RuleSource.class.getSimpleName() + " must exist (but does not).");
+    }
+    if (!directory.isDirectory()) {
+      throw new TestFluxException("Directory " + directory.getAbsolutePath() + " given by @" + RuleSource.class.getSimpleName() + " must denote a directory (but does not).");
+    }
+
+    return directoryScanner.scan(directory, ruleSource.recursive(), Arrays.asList(ruleSource.includes()), Arrays.asList(ruleSource.excludes()));
+  }
+
+  private String determineBaseDirectory(RulesBaseDirectory ruleBaseDirectory) {
+    String baseDirectory = null;
+    if (ruleBaseDirectory != null) {
+      baseDirectory = ruleBaseDirectory.value();
+    }
+    else {
+      baseDirectory = "src" + File.separator + "main" + File.separator + "rules";
+    }
+    return rulesRootDirectory + File.separator + baseDirectory;
+  }
+
+  private List<File> individualFileFromBaseDirectory(String filename, RulesBaseDirectory rulesBaseDirectory) {
+    String baseDirectory = determineBaseDirectory(rulesBaseDirectory);
+    File file = fileFromBaseDirectory(filename, baseDirectory);
+    return Collections.singletonList(ensureIsUsableFile(file));
+  }
+
+  private File ensureIsUsableFile(File file) {
+    ensureFileExists(file);
+    ensureIsRegularFile(file);
+    return file;
+  }
+
+  private void ensureIsRegularFile(File file) {
+    if (!file.isFile()) {
+      throw new TestFluxException("File " + file.getAbsolutePath() + " given by @" + RuleSource.class.getSimpleName() + " must denote a regular file (but does not).");
+    }
+  }
+
+  private void ensureFileExists(File file) {
+    if (!file.exists()) {
+      throw new TestFluxException("File " + file.getAbsolutePath() + " not found, although given by @" + RuleSource.class.getSimpleName() + " annotation");
+    }
+  }
+
+  private File fileFromBaseDirectory(String filename, String baseDirectory) {
+    return new File(baseDirectory + File.separator + filename);
+  }
+
+  private boolean isValueAvailable(String fileOrDirectoryName) {
+    return (fileOrDirectoryName != null) && (!"".equals(fileOrDirectoryName));
+  }
+}
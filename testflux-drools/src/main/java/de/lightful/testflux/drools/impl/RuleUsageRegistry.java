@@ -0,0 +1,104 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which rule files and rule directories each test class has used, so that tools can find the test classes
+ * affected by a change to a rule file.
+ */
+public class RuleUsageRegistry {
+
+  private final Map<String, Set<File>> filesByTestClass = new HashMap<String, Set<File>>();
+  private final Map<String, Set<File>> directoriesByTestClass = new HashMap<String, Set<File>>();
+
+  public synchronized void recordUsage(Class<?> testClass, List<CompilationUnit> compilationUnits) {
+    final Set<File> files = valuesFor(filesByTestClass, testClass.getName());
+    final Set<File> directories = valuesFor(directoriesByTestClass, testClass.getName());
+    for (CompilationUnit compilationUnit : compilationUnits) {
+      for (File file : compilationUnit.getFiles()) {
+        files.add(file.getAbsoluteFile());
+      }
+      if (compilationUnit.getSourceDirectory() != null) {
+        directories.add(compilationUnit.getSourceDirectory().getAbsoluteFile());
+      }
+    }
+  }
+
+  /**
+   * @return the names of all test classes which use one of the given files, or scan a directory containing one of them
+   * (so that newly created files are covered, too).
+   */
+  public synchronized Set<String> testClassesAffectedBy(Collection<File> changedFiles) {
+    Set<String> affectedTestClasses = new HashSet<String>();
+    for (File changedFile : changedFiles) {
+      final File file = changedFile.getAbsoluteFile();
+      for (Map.Entry<String, Set<File>> entry : filesByTestClass.entrySet()) {
+        if (entry.getValue().contains(file)) {
+          affectedTestClasses.add(entry.getKey());
+        }
+      }
+      for (Map.Entry<String, Set<File>> entry : directoriesByTestClass.entrySet()) {
+        for (File directory : entry.getValue()) {
+          if (isBelow(file, directory)) {
+            affectedTestClasses.add(entry.getKey());
+          }
+        }
+      }
+    }
+    return affectedTestClasses;
+  }
+
+  /**
+   * @return all recorded rule files and scanned directories.
+   */
+  public synchronized Set<File> usedLocations() {
+    Set<File> locations = new HashSet<File>();
+    for (Set<File> files : filesByTestClass.values()) {
+      locations.addAll(files);
+    }
+    for (Set<File> directories : directoriesByTestClass.values()) {
+      locations.addAll(directories);
+    }
+    return locations;
+  }
+
+  private boolean isBelow(File file, File directory) {
+    for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+      if (parent.equals(directory)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Set<File> valuesFor(Map<String, Set<File>> map, String key) {
+    Set<File> values = map.get(key);
+    if (values == null) {
+      values = new HashSet<File>();
+      map.put(key, values);
+    }
+    return values;
+  }
+}
@@ -0,0 +1,173 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distributes test classes over a number of shards, each run by its own JVM. Classes using the same rule sets form a
+ * group which is kept in one shard, so its rules are compiled once only. Groups are assigned longest first to the
+ * shard with the least work so far (longest processing time first scheduling), estimating the work of a class by its
+ * duration in an earlier run. A group taking longer than a shard should take in total is split into as few parts as
+ * needed to keep the shards balanced.
+ */
+public class ShardPlanner {
+
+  private final int shardCount;
+  private final Map<String, Double> historicalMillis;
+
+  /**
+   * @param historicalMillis the duration of each test class in an earlier run; classes missing are assumed to take as
+   *                         long as the average known class.
+   */
+  public ShardPlanner(int shardCount, Map<String, Double> historicalMillis) {
+    this.shardCount = Math.max(1, shardCount);
+    this.historicalMillis = historicalMillis;
+  }
+
+  /**
+   * @param classGroups the names of the test classes, grouped by the rule sets they use. Classes not using any rules
+   *                    should be given as groups of their own.
+   * @return the non-empty shards, at most as many as requested.
+   */
+  public List<Shard> plan(Collection<List<String>> classGroups) {
+    final double defaultMillis = averageKnownMillis(classGroups);
+    double totalMillis = 0;
+    for (List<String> classGroup : classGroups) {
+      for (String className : classGroup) {
+        totalMillis += estimateMillis(className, defaultMillis);
+      }
+    }
+    final double millisPerShard = totalMillis / shardCount;
+
+    List<Shard> units = new ArrayList<Shard>();
+    for (List<String> classGroup : classGroups) {
+      Shard unit = new Shard();
+      for (String className : classGroup) {
+        unit.add(className, estimateMillis(className, defaultMillis));
+      }
+      final int parts = millisPerShard <= 0 ? 1 : (int) Math.min(classGroup.size(), Math.ceil(unit.estimatedMillis / millisPerShard));
+      if (parts > 1) {
+        units.addAll(split(classGroup, parts, defaultMillis));
+      }
+      else if (!classGroup.isEmpty()) {
+        units.add(unit);
+      }
+    }
+
+    List<Shard> shards = new ArrayList<Shard>();
+    for (int i = 0; i < shardCount; i++) {
+      shards.add(new Shard());
+    }
+    sortLongestFirst(units);
+    for (Shard unit : units) {
+      final Shard shard = leastLoaded(shards);
+      for (String className : unit.classNames) {
+        shard.add(className, estimateMillis(className, defaultMillis));
+      }
+    }
+    List<Shard> usedShards = new ArrayList<Shard>();
+    for (Shard shard : shards) {
+      if (!shard.classNames.isEmpty()) {
+        usedShards.add(shard);
+      }
+    }
+    return usedShards;
+  }
+
+  private List<Shard> split(List<String> classGroup, int parts, double defaultMillis) {
+    List<Shard> classes = new ArrayList<Shard>();
+    for (String className : classGroup) {
+      Shard single = new Shard();
+      single.add(className, estimateMillis(className, defaultMillis));
+      classes.add(single);
+    }
+    sortLongestFirst(classes);
+    List<Shard> splitParts = new ArrayList<Shard>();
+    for (int i = 0; i < parts; i++) {
+      splitParts.add(new Shard());
+    }
+    for (Shard single : classes) {
+      leastLoaded(splitParts).add(single.classNames.get(0), single.estimatedMillis);
+    }
+    return splitParts;
+  }
+
+  private static Shard leastLoaded(List<Shard> shards) {
+    Shard leastLoaded = shards.get(0);
+    for (Shard shard : shards) {
+      if (shard.estimatedMillis < leastLoaded.estimatedMillis) {
+        leastLoaded = shard;
+      }
+    }
+    return leastLoaded;
+  }
+
+  private static void sortLongestFirst(List<Shard> shards) {
+    Collections.sort(shards, new Comparator<Shard>() {
+      @Override
+      public int compare(Shard first, Shard second) {
+        final int byDuration = Double.compare(second.estimatedMillis, first.estimatedMillis);
+        return byDuration != 0 ? byDuration : first.classNames.get(0).compareTo(second.classNames.get(0));
+      }
+    });
+  }
+
+  private double averageKnownMillis(Collection<List<String>> classGroups) {
+    double knownMillis = 0;
+    int knownClasses = 0;
+    for (List<String> classGroup : classGroups) {
+      for (String className : classGroup) {
+        final Double millis = historicalMillis.get(className);
+        if (millis != null) {
+          knownMillis += millis;
+          knownClasses++;
+        }
+      }
+    }
+    return knownClasses == 0 ? 1.0 : knownMillis / knownClasses;
+  }
+
+  private double estimateMillis(String className, double defaultMillis) {
+    final Double millis = historicalMillis.get(className);
+    return millis == null ? defaultMillis : millis;
+  }
+
+  public static class Shard {
+
+    private final List<String> classNames = new ArrayList<String>();
+    private double estimatedMillis;
+
+    private void add(String className, double millis) {
+      classNames.add(className);
+      estimatedMillis += millis;
+    }
+
+    public List<String> getClassNames() {
+      return Collections.unmodifiableList(classNames);
+    }
+
+    public double getEstimatedMillis() {
+      return estimatedMillis;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.TestFluxException;
+import org.drools.KnowledgeBase;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The KnowledgeBases shared between tests, by sharing scope and rule set. Like {@link KnowledgePackageCache}, threads
+ * asking for a KnowledgeBase which is currently being built wait for it instead of building their own.
+ * <p/>
+ * Callers must not modify the KnowledgeBases handed out, but wrap them in a {@link CopyOnWriteKnowledgeBase}.
+ */
+public class SharedKnowledgeBases {
+
+  private final ConcurrentMap<Key, Future<KnowledgeBase>> knowledgeBases = new ConcurrentHashMap<Key, Future<KnowledgeBase>>();
+
+  /**
+   * @param suiteName the suite the KnowledgeBase is shared in, or <code>null</code> to share it globally.
+   * @param className the test class the KnowledgeBase is shared by, or <code>null</code> to share it by all classes.
+   * @param builder   builds the KnowledgeBase if there is none for this scope and rule set yet.
+   */
+  public KnowledgeBase obtain(String suiteName, String className, RuleSetKey ruleSetKey, Callable<KnowledgeBase> builder) {
+    final Key key = new Key(suiteName, className, ruleSetKey);
+    Future<KnowledgeBase> knowledgeBase = knowledgeBases.get(key);
+    if (knowledgeBase == null) {
+      FutureTask<KnowledgeBase> creation = new FutureTask<KnowledgeBase>(builder);
+      knowledgeBase = knowledgeBases.putIfAbsent(key, creation);
+      if (knowledgeBase == null) {
+        knowledgeBase = creation;
+        creation.run();
+      }
+    }
+    return waitFor(key, knowledgeBase);
+  }
+
+  private KnowledgeBase waitFor(Key key, Future<KnowledgeBase> knowledgeBase) {
+    try {
+      return knowledgeBase.get();
+    }
+    catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TestFluxException("Interrupted while waiting for shared KnowledgeBase to be built.", ie);
+    }
+    catch (ExecutionException ee) {
+      knowledgeBases.remove(key, knowledgeBase);
+      if (ee.getCause() instanceof TestFluxException) {
+        throw (TestFluxException) ee.getCause();
+      }
+      throw new TestFluxException("Exception occurred while building shared KnowledgeBase: " + ee.getCause().getMessage(), ee.getCause());
+    }
+  }
+
+  /**
+   * Drops the KnowledgeBases shared within the given suite (by the whole suite or by single classes of it).
+   */
+  public void releaseSuite(String suiteName) {
+    for (Iterator<Key> keys = knowledgeBases.keySet().iterator(); keys.hasNext(); ) {
+      if (suiteName.equals(keys.next().suiteName)) {
+        keys.remove();
+      }
+    }
+  }
+
+  private static class Key {
+
+    private final String suiteName;
+    private final String className;
+    private final RuleSetKey ruleSetKey;
+
+    public Key(String suiteName, String className, RuleSetKey ruleSetKey) {
+      this.suiteName = suiteName;
+      this.className = className;
+      this.ruleSetKey = ruleSetKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return equal(suiteName, key.suiteName) && equal(className, key.className) && ruleSetKey.equals(key.ruleSetKey);
+    }
+
+    private static boolean equal(String one, String other) {
+      return one == null ? other == null : one.equals(other);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = suiteName == null ? 0 : suiteName.hashCode();
+      result = 31 * result + (className == null ? 0 : className.hashCode());
+      return 31 * result + ruleSetKey.hashCode();
+    }
+  }
+}
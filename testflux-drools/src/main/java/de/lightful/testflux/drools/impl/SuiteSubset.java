@@ -0,0 +1,92 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.testng.xml.XmlClass;
+import org.testng.xml.XmlPackage;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies of a TestNG suite containing only some of its test classes. The copy keeps the parameters, parallel mode,
+ * thread count and listeners of the suite, and the name, parameters, parallel mode and included and excluded groups of
+ * each <code>&lt;test&gt;</code>. Tests without any of the given classes are left out.
+ */
+public class SuiteSubset {
+
+  private SuiteSubset() {
+  }
+
+  public static XmlSuite of(XmlSuite suite, Collection<String> testClassNames) {
+    XmlSuite subset = new XmlSuite();
+    subset.setName(suite.getName());
+    subset.setParameters(suite.getParameters());
+    subset.setParallel(suite.getParallel());
+    subset.setThreadCount(suite.getThreadCount());
+    subset.setListeners(suite.getListeners());
+
+    final Set<String> classNames = new HashSet<String>(testClassNames);
+    for (XmlTest test : suite.getTests()) {
+      List<XmlClass> testClasses = new ArrayList<XmlClass>();
+      for (Map.Entry<String, XmlClass> testClass : testClassesOf(test).entrySet()) {
+        if (classNames.contains(testClass.getKey())) {
+          testClasses.add(testClass.getValue());
+        }
+      }
+      if (testClasses.isEmpty()) {
+        continue;
+      }
+      XmlTest subsetTest = new XmlTest(subset);
+      if (!subset.getTests().contains(subsetTest)) {
+        subset.getTests().add(subsetTest);
+      }
+      subsetTest.setName(test.getName());
+      subsetTest.setParameters(test.getParameters());
+      subsetTest.setParallel(test.getParallel());
+      subsetTest.setIncludedGroups(test.getIncludedGroups());
+      subsetTest.setExcludedGroups(test.getExcludedGroups());
+      subsetTest.setXmlClasses(testClasses);
+    }
+    return subset;
+  }
+
+  /**
+   * The test classes of a <code>&lt;test&gt;</code>, given directly or through its packages, by class name.
+   */
+  public static Map<String, XmlClass> testClassesOf(XmlTest test) {
+    Map<String, XmlClass> testClasses = new LinkedHashMap<String, XmlClass>();
+    for (XmlClass xmlClass : test.getXmlClasses()) {
+      testClasses.put(xmlClass.getName(), xmlClass);
+    }
+    for (XmlPackage xmlPackage : test.getXmlPackages()) {
+      for (XmlClass xmlClass : xmlPackage.getXmlClasses()) {
+        if (!testClasses.containsKey(xmlClass.getName())) {
+          testClasses.put(xmlClass.getName(), xmlClass);
+        }
+      }
+    }
+    return testClasses;
+  }
+}
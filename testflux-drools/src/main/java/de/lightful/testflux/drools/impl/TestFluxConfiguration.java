@@ -0,0 +1,173 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.TestFluxException;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The testflux settings, merged from three layers. Later layers override earlier ones:
+ * <ol>
+ * <li>the classpath resource <code>/testflux.properties</code> (read once per JVM),</li>
+ * <li>the parameters of the TestNG suite,</li>
+ * <li>system properties, so single settings can be changed from the command line.</li>
+ * </ol>
+ * System properties are captured when the configuration is created.
+ */
+public class TestFluxConfiguration {
+
+  private static Logger log = Logger.getLogger(TestFluxConfiguration.class);
+
+  public static final String CONFIG_RESOURCE = "/testflux.properties";
+
+  /**
+   * The directory rule base directories are relative to. Defaults to the Maven <code>basedir</code> (set by surefire)
+   * or, failing that, the working directory.
+   */
+  public static final String RULES_ROOT_DIRECTORY = "rulesRootDirectory";
+
+  private static Map<String, String> resourceProperties;
+
+  private final Map<String, String> suiteParameters;
+  private final Properties systemProperties;
+
+  public TestFluxConfiguration(Map<String, String> suiteParameters) {
+    this.suiteParameters = suiteParameters == null ? Collections.<String, String>emptyMap() : new HashMap<String, String>(suiteParameters);
+    this.systemProperties = new Properties();
+    this.systemProperties.putAll(System.getProperties());
+  }
+
+  /**
+   * @return the value of the setting, or <code>defaultValue</code> if no layer sets it.
+   */
+  public String getString(String key, String defaultValue) {
+    String value = systemProperties.getProperty(key);
+    if (value == null) {
+      value = suiteParameters.get(key);
+    }
+    if (value == null) {
+      value = resourceProperties().get(key);
+    }
+    return value == null ? defaultValue : value;
+  }
+
+  public int getInt(String key, int defaultValue) {
+    final String value = getString(key, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    }
+    catch (NumberFormatException nfe) {
+      throw new TestFluxException("Configuration property " + key + " must be a number, but was '" + value + "'.");
+    }
+  }
+
+  public long getLong(String key, long defaultValue) {
+    final String value = getString(key, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    }
+    catch (NumberFormatException nfe) {
+      throw new TestFluxException("Configuration property " + key + " must be a number, but was '" + value + "'.");
+    }
+  }
+
+  public double getDouble(String key, double defaultValue) {
+    final String value = getString(key, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    }
+    catch (NumberFormatException nfe) {
+      throw new TestFluxException("Configuration property " + key + " must be a number, but was '" + value + "'.");
+    }
+  }
+
+  public boolean getBoolean(String key, boolean defaultValue) {
+    final String value = getString(key, null);
+    return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+  }
+
+  public <E extends Enum<E>> E getEnum(String key, Class<E> enumType, E defaultValue) {
+    final String value = getString(key, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Enum.valueOf(enumType, value.trim().toUpperCase(Locale.ENGLISH));
+    }
+    catch (IllegalArgumentException iae) {
+      throw new TestFluxException("Configuration property " + key + " must be one of " + Arrays.toString(enumType.getEnumConstants()) +
+                                  ", but was '" + value + "'.");
+    }
+  }
+
+  public String getRulesRootDirectory() {
+    return getString(RULES_ROOT_DIRECTORY, systemProperties.getProperty("basedir", systemProperties.getProperty("user.dir")));
+  }
+
+  private static synchronized Map<String, String> resourceProperties() {
+    if (resourceProperties == null) {
+      resourceProperties = loadResource(CONFIG_RESOURCE);
+    }
+    return resourceProperties;
+  }
+
+  private static Map<String, String> loadResource(String resourceName) {
+    Map<String, String> values = new HashMap<String, String>();
+    final InputStream stream = TestFluxConfiguration.class.getResourceAsStream(resourceName);
+    if (stream == null) {
+      log.debug("No " + resourceName + " found on classpath, using defaults.");
+      return values;
+    }
+    try {
+      Properties properties = new Properties();
+      properties.load(stream);
+      for (String name : properties.stringPropertyNames()) {
+        values.put(name, properties.getProperty(name));
+      }
+      log.debug("Loaded configuration from " + resourceName + ".");
+    }
+    catch (IOException e) {
+      throw new TestFluxException("Cannot read configuration " + resourceName + ": " + e.getMessage(), e);
+    }
+    finally {
+      try {
+        stream.close();
+      }
+      catch (IOException ignored) {
+      }
+    }
+    return values;
+  }
+}
@@ -0,0 +1,360 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects where the time of a test run goes: per test class and {@link Phase}, per compiled rule file, and how often
+ * the package caches could be used. All methods may be called concurrently.
+ */
+public class TestFluxMetrics {
+
+  public enum Phase {
+    DISCOVERY, COMPILATION, ASSEMBLY, INJECTION, FACTS, TEST
+  }
+
+  public enum Cache {
+    MEMORY, PERSISTENT
+  }
+
+  private final Map<String, Map<Phase, Timing>> phasesByTestClass = new TreeMap<String, Map<Phase, Timing>>();
+  private final Map<String, Timing> compilationsByRuleFile = new TreeMap<String, Timing>();
+  /**
+   * Per cache: hits, misses, evictions and the estimated size of the entries currently held, in bytes.
+   */
+  private final Map<Cache, long[]> cacheStatistics = new EnumMap<Cache, long[]>(Cache.class);
+
+  public TestFluxMetrics() {
+    for (Cache cache : Cache.values()) {
+      cacheStatistics.put(cache, new long[4]);
+    }
+  }
+
+  public synchronized void recordPhase(String testClass, Phase phase, long nanos) {
+    Map<Phase, Timing> phases = phasesByTestClass.get(testClass);
+    if (phases == null) {
+      phases = new EnumMap<Phase, Timing>(Phase.class);
+      phasesByTestClass.put(testClass, phases);
+    }
+    timingFor(phases, phase).add(nanos);
+  }
+
+  public synchronized void recordRuleFileCompilation(File ruleFile, long nanos) {
+    timingFor(compilationsByRuleFile, ruleFile.getAbsolutePath()).add(nanos);
+  }
+
+  public synchronized void recordCacheLookup(Cache cache, boolean hit) {
+    cacheStatistics.get(cache)[hit ? 0 : 1]++;
+  }
+
+  public synchronized void recordCacheEviction(Cache cache) {
+    cacheStatistics.get(cache)[2]++;
+  }
+
+  public synchronized void recordCacheBytes(Cache cache, long estimatedBytes) {
+    cacheStatistics.get(cache)[3] = estimatedBytes;
+  }
+
+  public synchronized long getCacheHits(Cache cache) {
+    return cacheStatistics.get(cache)[0];
+  }
+
+  public synchronized long getCacheMisses(Cache cache) {
+    return cacheStatistics.get(cache)[1];
+  }
+
+  public synchronized long getCacheEvictions(Cache cache) {
+    return cacheStatistics.get(cache)[2];
+  }
+
+  public synchronized long getCacheBytes(Cache cache) {
+    return cacheStatistics.get(cache)[3];
+  }
+
+  /**
+   * @return the average time compiling the file took in this JVM, or zero if it was not compiled (yet).
+   */
+  public synchronized long averageCompilationNanos(File ruleFile) {
+    final Timing timing = compilationsByRuleFile.get(ruleFile.getAbsolutePath());
+    return timing == null || timing.count == 0 ? 0 : timing.totalNanos / timing.count;
+  }
+
+  public synchronized List<Map.Entry<String, Timing>> slowestRuleFiles(int count) {
+    List<Map.Entry<String, Timing>> ruleFiles = new ArrayList<Map.Entry<String, Timing>>();
+    for (Map.Entry<String, Timing> entry : compilationsByRuleFile.entrySet()) {
+      ruleFiles.add(new AbstractMap.SimpleImmutableEntry<String, Timing>(entry.getKey(), entry.getValue().copy()));
+    }
+    Collections.sort(ruleFiles, new Comparator<Map.Entry<String, Timing>>() {
+      @Override
+      public int compare(Map.Entry<String, Timing> first, Map.Entry<String, Timing> second) {
+        return second.getValue().totalNanos < first.getValue().totalNanos ? -1 : (second.getValue().totalNanos == first.getValue().totalNanos ? 0 : 1);
+      }
+    });
+    return ruleFiles.subList(0, Math.min(count, ruleFiles.size()));
+  }
+
+  public synchronized Map<Phase, Timing> totalsByPhase() {
+    Map<Phase, Timing> totals = new EnumMap<Phase, Timing>(Phase.class);
+    for (Map<Phase, Timing> phases : phasesByTestClass.values()) {
+      for (Map.Entry<Phase, Timing> entry : phases.entrySet()) {
+        timingFor(totals, entry.getKey()).add(entry.getValue());
+      }
+    }
+    return totals;
+  }
+
+  public synchronized void writeJson(File file) throws IOException {
+    PrintWriter out = new PrintWriter(file, "UTF-8");
+    try {
+      out.println("{");
+      out.println("  \"cache\": {");
+      boolean first = true;
+      for (Cache cache : Cache.values()) {
+        out.print(first ? "" : ",\n");
+        first = false;
+        out.print("    " + quote(cache.name().toLowerCase(Locale.ENGLISH)) + ": {\"hits\": " + getCacheHits(cache) +
+                  ", \"misses\": " + getCacheMisses(cache) + ", \"hitRate\": " + format(hitRate(cache)) +
+                  ", \"evictions\": " + getCacheEvictions(cache) + ", \"estimatedBytes\": " + getCacheBytes(cache) + "}");
+      }
+      out.println();
+      out.println("  },");
+      out.println("  \"phases\": " + toJson(totalsByPhase()) + ",");
+      out.println("  \"testClasses\": [");
+      first = true;
+      for (Map.Entry<String, Map<Phase, Timing>> entry : phasesByTestClass.entrySet()) {
+        out.print(first ? "" : ",\n");
+        first = false;
+        out.print("    {\"name\": " + quote(entry.getKey()) + ", \"phases\": " + toJson(entry.getValue()) + "}");
+      }
+      out.println();
+      out.println("  ],");
+      out.println("  \"ruleFiles\": [");
+      first = true;
+      for (Map.Entry<String, Timing> entry : compilationsByRuleFile.entrySet()) {
+        out.print(first ? "" : ",\n");
+        first = false;
+        out.print("    {\"file\": " + quote(entry.getKey()) + ", " + entry.getValue().toJsonFields() + "}");
+      }
+      out.println();
+      out.println("  ]");
+      out.println("}");
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  public synchronized void writeCsv(File file) throws IOException {
+    PrintWriter out = new PrintWriter(file, "UTF-8");
+    try {
+      out.println("scope,name,metric,count,total_ms,max_ms");
+      for (Cache cache : Cache.values()) {
+        out.println("cache," + cache.name().toLowerCase(Locale.ENGLISH) + ",hits," + getCacheHits(cache) + ",,");
+        out.println("cache," + cache.name().toLowerCase(Locale.ENGLISH) + ",misses," + getCacheMisses(cache) + ",,");
+        out.println("cache," + cache.name().toLowerCase(Locale.ENGLISH) + ",evictions," + getCacheEvictions(cache) + ",,");
+        out.println("cache," + cache.name().toLowerCase(Locale.ENGLISH) + ",estimated_bytes," + getCacheBytes(cache) + ",,");
+      }
+      for (Map.Entry<String, Map<Phase, Timing>> entry : phasesByTestClass.entrySet()) {
+        for (Map.Entry<Phase, Timing> phase : entry.getValue().entrySet()) {
+          out.println("class," + csv(entry.getKey()) + "," + phase.getKey() + "," + phase.getValue().toCsvFields());
+        }
+      }
+      for (Map.Entry<String, Timing> entry : compilationsByRuleFile.entrySet()) {
+        out.println("ruleFile," + csv(entry.getKey()) + "," + Phase.COMPILATION + "," + entry.getValue().toCsvFields());
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads the total duration of each test class (all phases) from a report written by {@link #writeCsv(File)}.
+   *
+   * @return the durations in milliseconds, by test class name. Empty if the file does not exist.
+   */
+  public static Map<String, Double> readTestClassMillis(File file) throws IOException {
+    Map<String, Double> millisByTestClass = new TreeMap<String, Double>();
+    if (!file.isFile()) {
+      return millisByTestClass;
+    }
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        final List<String> fields = splitCsv(line);
+        if (fields.size() == 6 && "class".equals(fields.get(0)) && fields.get(4).length() > 0) {
+          final Double millis = millisByTestClass.get(fields.get(1));
+          millisByTestClass.put(fields.get(1), (millis == null ? 0.0 : millis) + parseMillis(fields.get(4)));
+        }
+      }
+    }
+    finally {
+      in.close();
+    }
+    return millisByTestClass;
+  }
+
+  private static double parseMillis(String value) throws IOException {
+    try {
+      return Double.parseDouble(value);
+    }
+    catch (NumberFormatException e) {
+      throw new IOException("Invalid duration '" + value + "' in metrics report.");
+    }
+  }
+
+  /**
+   * Splits a line of the CSV report, undoing {@link #csv(String)}.
+   */
+  static List<String> splitCsv(String line) {
+    List<String> fields = new ArrayList<String>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      final char c = line.charAt(i);
+      if (quoted && c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+        field.append(c);
+        i++;
+      }
+      else if (c == '"') {
+        quoted = !quoted;
+      }
+      else if (c == ',' && !quoted) {
+        fields.add(field.toString());
+        field.setLength(0);
+      }
+      else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  private double hitRate(Cache cache) {
+    final long lookups = getCacheHits(cache) + getCacheMisses(cache);
+    return lookups == 0 ? 0.0 : (double) getCacheHits(cache) / lookups;
+  }
+
+  private static String toJson(Map<Phase, Timing> phases) {
+    StringBuilder builder = new StringBuilder("{");
+    for (Map.Entry<Phase, Timing> entry : phases.entrySet()) {
+      if (builder.length() > 1) {
+        builder.append(", ");
+      }
+      builder.append(quote(entry.getKey().name())).append(": {").append(entry.getValue().toJsonFields()).append("}");
+    }
+    return builder.append("}").toString();
+  }
+
+  private static <K> Timing timingFor(Map<K, Timing> timings, K key) {
+    Timing timing = timings.get(key);
+    if (timing == null) {
+      timing = new Timing();
+      timings.put(key, timing);
+    }
+    return timing;
+  }
+
+  static String quote(String value) {
+    StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      }
+      else if (c < 0x20) {
+        builder.append(String.format("\\u%04x", (int) c));
+      }
+      else {
+        builder.append(c);
+      }
+    }
+    return builder.append('"').toString();
+  }
+
+  static String csv(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  static String format(double value) {
+    return String.format(Locale.ENGLISH, "%.3f", value);
+  }
+
+  public static class Timing {
+
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    void add(long nanos) {
+      count++;
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    void add(Timing other) {
+      count += other.count;
+      totalNanos += other.totalNanos;
+      maxNanos = Math.max(maxNanos, other.maxNanos);
+    }
+
+    Timing copy() {
+      Timing copy = new Timing();
+      copy.add(this);
+      return copy;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getTotalMillis() {
+      return totalNanos / 1000000.0;
+    }
+
+    public double getMaxMillis() {
+      return maxNanos / 1000000.0;
+    }
+
+    String toJsonFields() {
+      return "\"count\": " + count + ", \"totalMillis\": " + format(getTotalMillis()) + ", \"maxMillis\": " + format(getMaxMillis());
+    }
+
+    String toCsvFields() {
+      return count + "," + format(getTotalMillis()) + "," + format(getMaxMillis());
+    }
+  }
+}
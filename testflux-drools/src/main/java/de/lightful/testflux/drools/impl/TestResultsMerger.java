@@ -0,0 +1,202 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the <code>testng-results.xml</code> files written by several TestNG runs into one, as if a single run had
+ * executed all their tests: the counts are summed up, the tests of suites with the same name are collected in one suite
+ * element (whose groups are merged as well), and the reporter output is concatenated.
+ */
+public class TestResultsMerger {
+
+  private static Logger log = Logger.getLogger(TestResultsMerger.class);
+
+  private static final String[] COUNT_ATTRIBUTES = {"total", "passed", "failed", "skipped"};
+
+  public void merge(List<File> resultFiles, File mergedFile) throws IOException {
+    try {
+      final DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+      final Document merged = builder.newDocument();
+      final Element mergedRoot = merged.createElement("testng-results");
+      merged.appendChild(mergedRoot);
+      final Element mergedReporterOutput = merged.createElement("reporter-output");
+      mergedRoot.appendChild(mergedReporterOutput);
+
+      Map<String, Element> mergedSuites = new LinkedHashMap<String, Element>();
+      long[] counts = new long[COUNT_ATTRIBUTES.length];
+      for (File resultFile : resultFiles) {
+        if (!resultFile.isFile()) {
+          log.warn("Test results " + resultFile.getAbsolutePath() + " not found, not merging them.");
+          continue;
+        }
+        final Element root = builder.parse(resultFile).getDocumentElement();
+        for (int i = 0; i < COUNT_ATTRIBUTES.length; i++) {
+          counts[i] += parseLong(root.getAttribute(COUNT_ATTRIBUTES[i]));
+        }
+        for (Element child : childElements(root)) {
+          if ("reporter-output".equals(child.getTagName())) {
+            for (Element line : childElements(child)) {
+              mergedReporterOutput.appendChild(merged.importNode(line, true));
+            }
+          }
+          else if ("suite".equals(child.getTagName())) {
+            mergeSuite(merged, mergedSuites, child);
+          }
+        }
+      }
+      for (int i = 0; i < COUNT_ATTRIBUTES.length; i++) {
+        mergedRoot.setAttribute(COUNT_ATTRIBUTES[i], String.valueOf(counts[i]));
+      }
+      for (Element mergedSuite : mergedSuites.values()) {
+        mergedRoot.appendChild(mergedSuite);
+      }
+      write(merged, mergedFile);
+    }
+    catch (ParserConfigurationException e) {
+      throw new IOException("Cannot create XML parser: " + e.getMessage());
+    }
+    catch (SAXException e) {
+      throw new IOException("Cannot parse test results: " + e.getMessage());
+    }
+    catch (TransformerException e) {
+      throw new IOException("Cannot write merged test results to " + mergedFile.getAbsolutePath() + ": " + e.getMessage());
+    }
+  }
+
+  private void mergeSuite(Document merged, Map<String, Element> mergedSuites, Element suite) {
+    final String name = suite.getAttribute("name");
+    Element mergedSuite = mergedSuites.get(name);
+    if (mergedSuite == null) {
+      mergedSuite = (Element) merged.importNode(suite, false);
+      mergedSuites.put(name, mergedSuite);
+    }
+    else {
+      // the runs overlap in time, so the merged suite lasts from the earliest start to the latest finish
+      keepExtreme(mergedSuite, suite, "started-at", -1);
+      keepExtreme(mergedSuite, suite, "finished-at", 1);
+      mergedSuite.setAttribute("duration-ms", String.valueOf(Math.max(parseLong(mergedSuite.getAttribute("duration-ms")),
+                                                                      parseLong(suite.getAttribute("duration-ms")))));
+    }
+    for (Element child : childElements(suite)) {
+      if ("groups".equals(child.getTagName())) {
+        mergeGroups(merged, mergedSuite, child);
+      }
+      else {
+        mergedSuite.appendChild(merged.importNode(child, true));
+      }
+    }
+  }
+
+  private void mergeGroups(Document merged, Element mergedSuite, Element groups) {
+    Element mergedGroups = null;
+    for (Element child : childElements(mergedSuite)) {
+      if ("groups".equals(child.getTagName())) {
+        mergedGroups = child;
+      }
+    }
+    if (mergedGroups == null) {
+      mergedGroups = merged.createElement("groups");
+      mergedSuite.insertBefore(mergedGroups, mergedSuite.getFirstChild());
+    }
+    for (Element group : childElements(groups)) {
+      Element mergedGroup = null;
+      for (Element candidate : childElements(mergedGroups)) {
+        if (candidate.getAttribute("name").equals(group.getAttribute("name"))) {
+          mergedGroup = candidate;
+        }
+      }
+      if (mergedGroup == null) {
+        mergedGroups.appendChild(merged.importNode(group, true));
+      }
+      else {
+        for (Element method : childElements(group)) {
+          mergedGroup.appendChild(merged.importNode(method, true));
+        }
+      }
+    }
+  }
+
+  /**
+   * Timestamps are ISO 8601 formatted, so they compare like strings.
+   */
+  private static void keepExtreme(Element mergedElement, Element element, String attribute, int direction) {
+    final String value = element.getAttribute(attribute);
+    final String mergedValue = mergedElement.getAttribute(attribute);
+    if (value.length() > 0 && (mergedValue.length() == 0 || Integer.signum(value.compareTo(mergedValue)) == direction)) {
+      mergedElement.setAttribute(attribute, value);
+    }
+  }
+
+  private static List<Element> childElements(Element parent) {
+    List<Element> children = new ArrayList<Element>();
+    final NodeList childNodes = parent.getChildNodes();
+    for (int i = 0; i < childNodes.getLength(); i++) {
+      if (childNodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
+        children.add((Element) childNodes.item(i));
+      }
+    }
+    return children;
+  }
+
+  private static long parseLong(String value) {
+    try {
+      return value.length() == 0 ? 0 : Long.parseLong(value.trim());
+    }
+    catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static void write(Document document, File file) throws IOException, TransformerException {
+    final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+    transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+    try {
+      transformer.transform(new DOMSource(document), new StreamResult(out));
+    }
+    finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.TestFluxException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * A proxy which forwards every call to the object bound to the calling thread. Used when TestNG runs several methods
+ * of one test instance concurrently: the instance field holds the proxy, while each test thread sees the KnowledgeBase
+ * (or session) prepared for its own invocation.
+ */
+public class ThreadBoundProxy<T> implements InvocationHandler {
+
+  private final ThreadLocal<T> boundTarget = new ThreadLocal<T>();
+  private final Class<T> targetInterface;
+  private final T proxy;
+
+  public ThreadBoundProxy(Class<T> targetInterface) {
+    this.targetInterface = targetInterface;
+    this.proxy = targetInterface.cast(Proxy.newProxyInstance(targetInterface.getClassLoader(), new Class[] {targetInterface}, this));
+  }
+
+  public T getProxy() {
+    return proxy;
+  }
+
+  public void bind(T target) {
+    boundTarget.set(target);
+  }
+
+  public void unbind() {
+    boundTarget.remove();
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return invokeObjectMethod(proxy, method, args);
+    }
+    final T target = boundTarget.get();
+    if (target == null) {
+      throw new TestFluxException("No " + targetInterface.getSimpleName() + " bound to thread " + Thread.currentThread().getName() + ". " +
+                                  "Injected objects may only be used by the thread running the test method.");
+    }
+    try {
+      return method.invoke(target, args);
+    }
+    catch (InvocationTargetException ite) {
+      throw ite.getCause();
+    }
+  }
+
+  private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+    if ("equals".equals(method.getName())) {
+      return proxy == args[0];
+    }
+    if ("hashCode".equals(method.getName())) {
+      return System.identityHashCode(proxy);
+    }
+    return "ThreadBound" + targetInterface.getSimpleName() + "[" + boundTarget.get() + "]";
+  }
+}
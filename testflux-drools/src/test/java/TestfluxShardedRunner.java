@@ -14,24 +14,16 @@
  * permissions and limitations under the License.                             *
  ******************************************************************************/
 
-package de.lightful.testflux.drools.impl;
+import de.lightful.testflux.drools.ShardedSuiteRunner;
 
-import java.util.Iterator;
+public class TestfluxShardedRunner {
 
-public class IterableAdapter<T> implements Iterable<T> {
-
-  private Iterator<T> adaptee;
-
-  private IterableAdapter(Iterator<T> adaptee) {
-    this.adaptee = adaptee;
-  }
-
-  @Override
-  public Iterator<T> iterator() {
-    return adaptee;
+  public static void main(String[] args) throws Exception {
+    ShardedSuiteRunner.main(new String[] {suiteFileName()});
   }
 
-  public static <K> Iterable<K> makeFrom(Iterator<K> iterator) {
-    return new IterableAdapter(iterator);
+  private static String suiteFileName() {
+    final String file = TestfluxShardedRunner.class.getResource("suite.xml").getFile();
+    return file;
   }
 }
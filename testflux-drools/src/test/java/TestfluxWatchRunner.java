@@ -0,0 +1,13 @@
+import de.lightful.testflux.drools.WatchModeRunner;
+
+public class TestfluxWatchRunner {
+
+  public static void main(String[] args) throws Exception {
+    WatchModeRunner.main(new String[] {suiteFileName()});
+  }
+
+  private static String suiteFileName() {
+    final String file = TestfluxWatchRunner.class.getResource("suite.xml").getFile();
+    return file;
+  }
+}
@@ -0,0 +1,63 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import com.google.inject.Inject;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@RulesBaseDirectory("src/test/rules")
+@CompileRules(@RuleSource(file = "another-directory/rule-file-one.drl"))
+@Test
+@Listeners(DroolsRuleTestListener.class)
+public class KnowledgeSessionInjectionTest {
+
+  @Inject
+  private StatefulKnowledgeSession session;
+
+  public void test_session_gets_injected_by_listener() {
+    assertThat(session).as("Injected StatefulKnowledgeSession").isNotNull();
+  }
+
+  public void test_session_starts_without_facts_left_by_other_tests() {
+    assertThat(session.getObjects().isEmpty()).isTrue();
+    session.insert("fact from first test");
+  }
+
+  public void test_session_starts_without_facts_left_by_other_tests_too() {
+    assertThat(session.getObjects().isEmpty()).isTrue();
+    session.insert("fact from second test");
+  }
+
+  public void test_rule_without_conditions_fires_in_session() {
+    assertThat(session.fireAllRules()).isEqualTo(1);
+  }
+
+  public void test_rule_without_conditions_fires_in_session_of_later_test_too() {
+    assertThat(session.fireAllRules()).isEqualTo(1);
+  }
+
+  @AfterMethod
+  public void teardown_can_still_use_session() {
+    session.insert("fact from teardown");
+    assertThat(session.getObjects()).contains("fact from teardown");
+  }
+}
@@ -0,0 +1,45 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import com.google.inject.Inject;
+import org.drools.KnowledgeBase;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@RulesBaseDirectory("src/test/rules")
+@CompileRules(@RuleSource(file = "another-directory/rule-file-one.drl"))
+@Test
+@Listeners(DroolsRuleTestListener.class)
+public class MethodLevelCompileRulesTest {
+
+  @Inject
+  private KnowledgeBase knowledgeBase;
+
+  public void test_class_rules_are_available_without_method_annotation() {
+    assertThat(knowledgeBase.getRule("de.lightful.testflux.drools.package_one", "dummy rule one")).isNotNull();
+    assertThat(knowledgeBase.getRule("de.lightful.testflux.drools.package_two", "dummy rule two")).isNull();
+  }
+
+  @CompileRules(@RuleSource(file = "another-directory/rule-file-two.drl"))
+  public void test_method_rules_are_added_on_top_of_class_rules() {
+    assertThat(knowledgeBase.getRule("de.lightful.testflux.drools.package_one", "dummy rule one")).isNotNull();
+    assertThat(knowledgeBase.getRule("de.lightful.testflux.drools.package_two", "dummy rule two")).isNotNull();
+  }
+}
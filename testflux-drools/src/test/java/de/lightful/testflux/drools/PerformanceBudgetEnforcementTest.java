@@ -0,0 +1,89 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import com.google.inject.Inject;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.testng.ITestResult;
+import org.testng.TestListenerAdapter;
+import org.testng.TestNG;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class PerformanceBudgetEnforcementTest {
+
+  /**
+   * Group of the fixture tests, which fail on purpose and are therefore excluded from the suite.
+   */
+  public static final String FIXTURE_GROUP = "performance-budget-fixture";
+
+  public void test_test_exceeding_budget_is_reported_as_failed() {
+    final TestListenerAdapter results = run(BudgetedRuleTest.class);
+    assertThat(methodNames(results.getFailedTests())).containsOnly("test_fires_more_rules_than_budget_allows");
+  }
+
+  public void test_test_within_budget_is_reported_as_passed() {
+    final TestListenerAdapter results = run(BudgetedRuleTest.class);
+    assertThat(methodNames(results.getPassedTests())).containsOnly("test_fires_rules_within_budget");
+  }
+
+  private TestListenerAdapter run(Class<?> testClass) {
+    TestListenerAdapter results = new TestListenerAdapter();
+    TestNG testNG = new TestNG();
+    testNG.setUseDefaultListeners(false);
+    testNG.setVerbose(0);
+    testNG.setTestClasses(new Class[] {testClass});
+    testNG.addListener(results);
+    testNG.run();
+    return results;
+  }
+
+  private static List<String> methodNames(List<ITestResult> results) {
+    List<String> methodNames = new ArrayList<String>();
+    for (ITestResult result : results) {
+      methodNames.add(result.getMethod().getMethodName());
+    }
+    return methodNames;
+  }
+
+  @RulesBaseDirectory("src/test/rules")
+  @CompileRules(@RuleSource(file = "another-directory/rule-file-one.drl"))
+  @Listeners(DroolsRuleTestListener.class)
+  public static class BudgetedRuleTest {
+
+    @Inject
+    private StatefulKnowledgeSession session;
+
+    @PerformanceBudget(maxActivations = 0)
+    @Test(groups = FIXTURE_GROUP)
+    public void test_fires_more_rules_than_budget_allows() {
+      session.fireAllRules();
+    }
+
+    @PerformanceBudget(maxActivations = 1)
+    @Test(groups = FIXTURE_GROUP)
+    public void test_fires_rules_within_budget() {
+      session.fireAllRules();
+    }
+  }
+}
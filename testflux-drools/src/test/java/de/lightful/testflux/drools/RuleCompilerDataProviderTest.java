@@ -47,4 +47,16 @@ public class RuleCompilerDataProviderTest {
   public void test_knowledge_base_contains_nonzero_number_of_packages() {
     assertThat(knowledgeBase.getKnowledgePackages().size()).isGreaterThan(0);
   }
+
+  @RuleVariants(
+      {
+          @RuleSource(file = "another-directory/rule-file-one.drl"),
+          @RuleSource(file = "another-directory/rule-file-two.drl")
+      }
+  )
+  @Test(dataProvider = RuleCompilerDataProvider.NAME, dataProviderClass = RuleCompilerDataProvider.class)
+  public void test_data_provider_compiles_one_knowledge_base_per_rule_source(KnowledgeBase variant) {
+    assertThat(variant).as("KnowledgeBase from data provider").isNotSameAs(knowledgeBase);
+    assertThat(variant.getKnowledgePackages().size()).isEqualTo(1);
+  }
 }
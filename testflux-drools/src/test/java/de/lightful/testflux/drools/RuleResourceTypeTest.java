@@ -0,0 +1,42 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class RuleResourceTypeTest {
+
+  public void test_auto_detects_type_from_extension() {
+    assertThat(RuleResourceType.AUTO.resolveFor(new File("rules.dslr"))).isEqualTo(RuleResourceType.DSLR);
+    assertThat(RuleResourceType.AUTO.resolveFor(new File("language.DSL"))).isEqualTo(RuleResourceType.DSL);
+    assertThat(RuleResourceType.AUTO.resolveFor(new File("pricing.xls"))).isEqualTo(RuleResourceType.XLS);
+    assertThat(RuleResourceType.AUTO.resolveFor(new File("compiled.pkg"))).isEqualTo(RuleResourceType.PKG);
+  }
+
+  public void test_auto_falls_back_to_drl_for_unknown_extensions() {
+    assertThat(RuleResourceType.AUTO.resolveFor(new File("rules.txt"))).isEqualTo(RuleResourceType.DRL);
+  }
+
+  public void test_explicit_type_overrides_extension() {
+    assertThat(RuleResourceType.CSV.resolveFor(new File("pricing.txt"))).isEqualTo(RuleResourceType.CSV);
+  }
+}
@@ -0,0 +1,47 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools;
+
+import com.google.inject.Inject;
+import org.drools.KnowledgeBase;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@RulesBaseDirectory("src/test/rules")
+@CompileRules(@RuleSource(file = "another-directory/rule-file-one.drl"))
+@ShareKnowledgeBase(KnowledgeBaseSharing.CLASS)
+@Test
+@Listeners(DroolsRuleTestListener.class)
+public class SharedKnowledgeBaseTest {
+
+  private static final String PACKAGE_ONE = "de.lightful.testflux.drools.package_one";
+
+  @Inject
+  private KnowledgeBase knowledgeBase;
+
+  public void test_removing_a_package_only_affects_own_copy() {
+    knowledgeBase.removeKnowledgePackage(PACKAGE_ONE);
+    assertThat(knowledgeBase.getKnowledgePackage(PACKAGE_ONE)).isNull();
+  }
+
+  @Test(dependsOnMethods = "test_removing_a_package_only_affects_own_copy")
+  public void test_shared_knowledge_base_keeps_package_removed_by_other_test() {
+    assertThat(knowledgeBase.getKnowledgePackage(PACKAGE_ONE)).isNotNull();
+  }
+}
@@ -0,0 +1,68 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.drools.builder.KnowledgeBuilderError;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class CompilationErrorReportTest {
+
+  private static final File FILE_ONE = new File("rules/one.drl");
+  private static final File FILE_TWO = new File("rules/two.drl");
+
+  public void test_report_without_errors_has_no_errors() {
+    assertThat(new CompilationErrorReport().hasErrors()).isFalse();
+  }
+
+  public void test_report_lists_all_error_lines() {
+    CompilationErrorReport report = new CompilationErrorReport();
+    report.addErrors(FILE_ONE, Arrays.asList(error("unexpected token", 3, 4, 5)));
+
+    assertThat(report.toString()).contains("line(s) [3,4,5]: unexpected token");
+  }
+
+  public void test_report_groups_errors_by_file() {
+    CompilationErrorReport report = new CompilationErrorReport();
+    report.addErrors(FILE_ONE, Arrays.asList(error("first", 1)));
+    report.addErrors(FILE_TWO, Arrays.asList(error("second", 2)));
+    report.addErrors(FILE_ONE, Arrays.asList(error("third", 7)));
+
+    final String message = report.toString();
+    assertThat(message).contains("3 error(s) in 2 rule file(s)");
+    assertThat(message.indexOf("third")).isLessThan(message.indexOf(FILE_TWO.getAbsolutePath()));
+  }
+
+  private KnowledgeBuilderError error(final String message, final int... lines) {
+    return new KnowledgeBuilderError() {
+      @Override
+      public String getMessage() {
+        return message;
+      }
+
+      @Override
+      public int[] getErrorLines() {
+        return lines;
+      }
+    };
+  }
+}
@@ -0,0 +1,110 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.TestFluxException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class FactFixtureTest {
+
+  private static final String FACTS_DIRECTORY = "src/test/rules/facts";
+
+  public void test_csv_records_are_converted_to_property_types() {
+    List<Object> facts = FactFixture.parse(new File(FACTS_DIRECTORY, "customers.csv"), Customer.class, ',').newFacts();
+    assertThat(facts).hasSize(3);
+    Customer alice = (Customer) facts.get(0);
+    assertThat(alice.name).isEqualTo("Alice");
+    assertThat(alice.age).isEqualTo(34);
+    assertThat(alice.status).isEqualTo(Status.GOLD);
+    assertThat(alice.balance).isEqualTo(new BigDecimal("1200.50"));
+  }
+
+  public void test_quoted_csv_values_may_contain_separators_and_quotes() {
+    List<Object> facts = FactFixture.parse(new File(FACTS_DIRECTORY, "customers.csv"), Customer.class, ',').newFacts();
+    assertThat(((Customer) facts.get(1)).name).isEqualTo("Smith, Bob");
+    assertThat(((Customer) facts.get(1)).age).isEqualTo(-1);
+    assertThat(((Customer) facts.get(2)).name).isEqualTo("Carol \"CJ\" Jones");
+  }
+
+  public void test_json_array_of_objects_is_read() {
+    List<Object> facts = FactFixture.parse(new File(FACTS_DIRECTORY, "customers.json"), Customer.class, ',').newFacts();
+    assertThat(facts).hasSize(2);
+    assertThat(((Customer) facts.get(0)).balance).isEqualTo(new BigDecimal("1200.50"));
+    assertThat(((Customer) facts.get(1)).name).isEqualTo("Bob \"the builder\"");
+    assertThat(((Customer) facts.get(1)).age).isEqualTo(-1);
+  }
+
+  public void test_every_call_creates_new_facts() {
+    final FactFixture fixture = FactFixture.parse(new File(FACTS_DIRECTORY, "customers.csv"), Customer.class, ',');
+    assertThat(fixture.newFacts().get(0)).isNotSameAs(fixture.newFacts().get(0));
+  }
+
+  public void test_mutable_property_values_are_not_shared_between_facts() {
+    final FactFixture fixture = FactFixture.parse(new File(FACTS_DIRECTORY, "labels.csv"), LabelledFact.class, ',');
+    final Label label = ((LabelledFact) fixture.newFacts().get(0)).label;
+    assertThat(label.text).isEqualTo("urgent");
+    assertThat(((LabelledFact) fixture.newFacts().get(0)).label).isNotSameAs(label);
+  }
+
+  public void test_cache_returns_same_fixture_for_same_file() {
+    FactFixtureCache cache = new FactFixtureCache();
+    final File file = new File(FACTS_DIRECTORY, "customers.csv");
+    assertThat(cache.obtain(file, Customer.class, ',')).isSameAs(cache.obtain(file, Customer.class, ','));
+  }
+
+  @Test(expectedExceptions = TestFluxException.class, expectedExceptionsMessageRegExp = ".*line 2.*old.*")
+  public void test_unconvertible_value_is_reported_with_line() {
+    FactFixture.parse(new File(FACTS_DIRECTORY, "invalid-age.jsonl"), Customer.class, ',');
+  }
+
+  public enum Status {
+    GOLD, SILVER, BRONZE
+  }
+
+  public static class Customer {
+
+    private String name;
+    private int age = -1;
+    private Status status;
+    private BigDecimal balance;
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+
+  public static class Label {
+
+    private String text;
+
+    public Label(String text) {
+      this.text = text;
+    }
+  }
+
+  public static class LabelledFact {
+
+    private Label label;
+  }
+}
@@ -0,0 +1,51 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.testng.annotations.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class GlobPatternTest {
+
+  public void test_pattern_without_slash_matches_file_name_at_any_depth() {
+    GlobPattern pattern = new GlobPattern("*.drl");
+    assertThat(pattern.matches("rules.drl")).isTrue();
+    assertThat(pattern.matches("nested/deeper/rules.drl")).isTrue();
+    assertThat(pattern.matches("rules.dsl")).isFalse();
+  }
+
+  public void test_single_star_does_not_cross_directories() {
+    GlobPattern pattern = new GlobPattern("nested/*.drl");
+    assertThat(pattern.matches("nested/rules.drl")).isTrue();
+    assertThat(pattern.matches("nested/deeper/rules.drl")).isFalse();
+  }
+
+  public void test_double_star_matches_any_number_of_directories() {
+    GlobPattern pattern = new GlobPattern("**/legacy/*.drl");
+    assertThat(pattern.matches("legacy/rules.drl")).isTrue();
+    assertThat(pattern.matches("a/b/legacy/rules.drl")).isTrue();
+    assertThat(pattern.matches("a/b/current/rules.drl")).isFalse();
+  }
+
+  public void test_question_mark_matches_exactly_one_character() {
+    GlobPattern pattern = new GlobPattern("rule-?.drl");
+    assertThat(pattern.matches("rule-1.drl")).isTrue();
+    assertThat(pattern.matches("rule-10.drl")).isFalse();
+  }
+}
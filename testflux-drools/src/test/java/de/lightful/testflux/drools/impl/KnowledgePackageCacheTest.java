@@ -0,0 +1,84 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class KnowledgePackageCacheTest {
+
+  private final List<CompilationUnit> ruleSetOne = ruleSet("src/test/rules/another-directory/rule-file-one.drl");
+  private final List<CompilationUnit> ruleSetTwo = ruleSet("src/test/rules/another-directory/rule-file-two.drl");
+
+  public void test_least_recently_used_rule_set_is_evicted_when_entry_limit_is_exceeded() {
+    TestFluxMetrics metrics = new TestFluxMetrics();
+    KnowledgePackageCache cache = new KnowledgePackageCache(metrics);
+    cache.configure(1, 0, KnowledgePackageCache.Eviction.LRU, false);
+    KnowledgePackageCompiler compiler = new KnowledgePackageCompiler();
+
+    cache.obtainPackages(ruleSetOne, compiler);
+    cache.obtainPackages(ruleSetTwo, compiler);
+    cache.obtainPackages(ruleSetOne, compiler);
+
+    assertThat(metrics.getCacheMisses(TestFluxMetrics.Cache.MEMORY)).isEqualTo(3);
+    assertThat(metrics.getCacheEvictions(TestFluxMetrics.Cache.MEMORY)).isEqualTo(2);
+  }
+
+  public void test_cached_rule_set_is_reused_within_limits() {
+    TestFluxMetrics metrics = new TestFluxMetrics();
+    KnowledgePackageCache cache = new KnowledgePackageCache(metrics);
+    cache.configure(2, 0, KnowledgePackageCache.Eviction.LFU, true);
+    KnowledgePackageCompiler compiler = new KnowledgePackageCompiler();
+
+    cache.obtainPackages(ruleSetOne, compiler);
+    cache.obtainPackages(ruleSetTwo, compiler);
+    cache.obtainPackages(ruleSetOne, compiler);
+
+    assertThat(metrics.getCacheHits(TestFluxMetrics.Cache.MEMORY)).isEqualTo(1);
+    assertThat(metrics.getCacheEvictions(TestFluxMetrics.Cache.MEMORY)).isEqualTo(0);
+    assertThat(metrics.getCacheBytes(TestFluxMetrics.Cache.MEMORY)).isGreaterThan(0);
+  }
+
+  public void test_removal_listener_is_told_about_evicted_rule_set() {
+    KnowledgePackageCache cache = new KnowledgePackageCache(new TestFluxMetrics());
+    cache.configure(1, 0, KnowledgePackageCache.Eviction.LRU, false);
+    final List<RuleSetKey> removedKeys = new ArrayList<RuleSetKey>();
+    cache.addRemovalListener(new KnowledgePackageCache.RemovalListener() {
+      @Override
+      public void removed(RuleSetKey key) {
+        removedKeys.add(key);
+      }
+    });
+    KnowledgePackageCompiler compiler = new KnowledgePackageCompiler();
+
+    cache.obtainPackages(ruleSetOne, compiler);
+    cache.obtainPackages(ruleSetTwo, compiler);
+
+    assertThat(removedKeys).containsOnly(RuleSetKey.forUnits(ruleSetOne));
+  }
+
+  private static List<CompilationUnit> ruleSet(String file) {
+    return Collections.singletonList(new CompilationUnit("file " + file, Collections.singletonList(new File(file))));
+  }
+}
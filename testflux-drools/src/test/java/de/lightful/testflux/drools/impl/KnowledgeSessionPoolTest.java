@@ -0,0 +1,68 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class KnowledgeSessionPoolTest {
+
+  public void test_returned_session_is_reused_without_facts_and_globals() {
+    KnowledgeSessionPool pool = new KnowledgeSessionPool(knowledgeBase("src/test/rules/pooling/remember-strings.drl"), 1);
+    StatefulKnowledgeSession session = pool.borrowSession("context", "first test");
+    final int sessionId = session.getId();
+    session.setGlobal("seen", new ArrayList<Object>());
+    session.insert("fact from first test");
+    pool.returnSession(session);
+
+    session = pool.borrowSession("context", "second test");
+
+    assertThat(pool.isReusingSessions()).isTrue();
+    assertThat(session.getId()).isEqualTo(sessionId);
+    assertThat(session.getObjects().isEmpty()).isTrue();
+    assertThat(session.getGlobal("seen")).isNull();
+    assertThat(session.fireAllRules()).isEqualTo(0);
+  }
+
+  public void test_sessions_are_not_reused_when_new_session_has_activations() {
+    KnowledgeSessionPool pool = new KnowledgeSessionPool(knowledgeBase("src/test/rules/another-directory/rule-file-one.drl"), 1);
+    StatefulKnowledgeSession session = pool.borrowSession("context", "first test");
+    session.fireAllRules();
+    pool.returnSession(session);
+
+    session = pool.borrowSession("context", "second test");
+
+    assertThat(pool.isReusingSessions()).isFalse();
+    assertThat(session.fireAllRules()).isEqualTo(1);
+  }
+
+  private static KnowledgeBase knowledgeBase(String file) {
+    KnowledgeBase knowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+    knowledgeBase.addKnowledgePackages(new KnowledgePackageCompiler().compile(
+        Collections.singletonList(new CompilationUnit("file " + file, Collections.singletonList(new File(file))))));
+    return knowledgeBase;
+  }
+}
@@ -0,0 +1,69 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.PerformanceBudget;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class PerformanceBudgetVerifierTest {
+
+  @PerformanceBudget(maxCompileMillis = 100, maxAllocatedBytes = 1000)
+  private static class Budgeted {
+  }
+
+  @PerformanceBudget(maxSlowdown = 2.0)
+  private static class BudgetedAgainstBaseline {
+  }
+
+  public void test_measurement_within_budget_passes() {
+    final List<String> violations = verify(null, Budgeted.class, new PerformanceBudgetVerifier.Measurement(10, 50, 500, null));
+    assertThat(violations).isEmpty();
+  }
+
+  public void test_every_exceeded_limit_is_reported() {
+    final List<String> violations = verify(null, Budgeted.class, new PerformanceBudgetVerifier.Measurement(10, 150, 5000, null));
+    assertThat(violations).hasSize(2);
+  }
+
+  public void test_unknown_allocation_is_not_checked() {
+    final List<String> violations = verify(null, Budgeted.class, new PerformanceBudgetVerifier.Measurement(10, 50, -1, null));
+    assertThat(violations).isEmpty();
+  }
+
+  public void test_slowdown_beyond_budget_against_baseline_fails() throws Exception {
+    File baselineFile = File.createTempFile("testflux-baseline", ".properties");
+    baselineFile.deleteOnExit();
+    PerformanceBaseline earlierRun = new PerformanceBaseline(baselineFile);
+    earlierRun.record("test", 100);
+    earlierRun.write();
+
+    PerformanceBaseline baseline = new PerformanceBaseline(baselineFile);
+    assertThat(verify(baseline, BudgetedAgainstBaseline.class, new PerformanceBudgetVerifier.Measurement(150, 0, -1, null))).isEmpty();
+    assertThat(verify(baseline, BudgetedAgainstBaseline.class, new PerformanceBudgetVerifier.Measurement(500, 0, -1, null))).hasSize(1);
+  }
+
+  private List<String> verify(PerformanceBaseline baseline, Class<?> budgetedClass, PerformanceBudgetVerifier.Measurement measurement) {
+    return new PerformanceBudgetVerifier(baseline, 1.5).verify("test", budgetedClass.getAnnotation(PerformanceBudget.class), measurement, new ArrayList<String>());
+  }
+}
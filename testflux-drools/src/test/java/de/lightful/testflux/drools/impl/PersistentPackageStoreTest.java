@@ -0,0 +1,56 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.drools.definition.KnowledgePackage;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class PersistentPackageStoreTest {
+
+  public void test_stored_packages_are_loaded_by_store_with_same_fingerprint() throws Exception {
+    File directory = createTemporaryDirectory();
+    new PersistentPackageStore(directory, "fingerprint").store("key", Collections.<KnowledgePackage>emptyList());
+
+    assertThat(new PersistentPackageStore(directory, "fingerprint").load("key")).isNotNull();
+    assertThat(new PersistentPackageStore(directory, "other fingerprint").load("key")).isNull();
+  }
+
+  public void test_storing_deletes_entries_of_other_fingerprints() throws Exception {
+    File directory = createTemporaryDirectory();
+    new PersistentPackageStore(directory, "old fingerprint").store("key", Collections.<KnowledgePackage>emptyList());
+
+    new PersistentPackageStore(directory, "new fingerprint").store("key", Collections.<KnowledgePackage>emptyList());
+
+    assertThat(directory.listFiles()).hasSize(1);
+    assertThat(new PersistentPackageStore(directory, "old fingerprint").load("key")).isNull();
+  }
+
+  private static File createTemporaryDirectory() throws IOException {
+    File directory = File.createTempFile("package-store", "");
+    directory.delete();
+    directory.mkdirs();
+    directory.deleteOnExit();
+    return directory;
+  }
+}
@@ -0,0 +1,73 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class RuleFileWatcherTest {
+
+  public void test_change_made_before_rewatching_is_still_reported() throws Exception {
+    File directory = createTemporaryDirectory();
+    File ruleFile = writeFile(new File(directory, "rules.drl"), "rule one");
+    RuleFileWatcher watcher = new RuleFileWatcher(Collections.singletonList(directory));
+
+    ruleFile.setLastModified(ruleFile.lastModified() - 10000L);
+    watcher.watch(Collections.singletonList(directory));
+
+    assertThat(watcher.changedFiles()).containsOnly(ruleFile.getAbsoluteFile());
+  }
+
+  public void test_files_below_newly_watched_location_are_not_reported_as_changed() throws Exception {
+    File watchedDirectory = createTemporaryDirectory();
+    File newDirectory = createTemporaryDirectory();
+    writeFile(new File(newDirectory, "rules.drl"), "rule two");
+    RuleFileWatcher watcher = new RuleFileWatcher(Collections.singletonList(watchedDirectory));
+
+    watcher.watch(Arrays.asList(watchedDirectory, newDirectory));
+
+    assertThat(watcher.changedFiles()).isEmpty();
+  }
+
+  private static File createTemporaryDirectory() throws IOException {
+    File directory = File.createTempFile("rule-file-watcher", "");
+    directory.delete();
+    directory.mkdirs();
+    directory.deleteOnExit();
+    return directory;
+  }
+
+  private static File writeFile(File file, String content) throws IOException {
+    FileWriter writer = new FileWriter(file);
+    try {
+      writer.write(content);
+    }
+    finally {
+      writer.close();
+    }
+    file.deleteOnExit();
+    return file;
+  }
+}
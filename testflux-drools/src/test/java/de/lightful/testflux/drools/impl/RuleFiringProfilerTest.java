@@ -0,0 +1,52 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class RuleFiringProfilerTest {
+
+  private static final String DUMMY_RULE = "de.lightful.testflux.drools.package_one.dummy rule one";
+
+  public void test_profiler_counts_activations_of_sessions_created_from_wrapped_knowledge_base() {
+    KnowledgeBase knowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+    knowledgeBase.addKnowledgePackages(new KnowledgePackageCompiler().compile(Collections.singletonList(
+        new CompilationUnit("rule file one", Collections.singletonList(new File("src/test/rules/another-directory/rule-file-one.drl"))))));
+    RuleFiringProfiler profiler = new RuleFiringProfiler();
+
+    StatefulKnowledgeSession session = ProfilingKnowledgeBase.wrap(knowledgeBase, profiler).newStatefulKnowledgeSession();
+    try {
+      session.insert("some fact");
+      session.fireAllRules();
+    }
+    finally {
+      session.dispose();
+    }
+
+    assertThat(profiler.getRuleStatistics().get(DUMMY_RULE).getFired()).isEqualTo(1);
+    assertThat(profiler.getFactStatistics().getInserted()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,74 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class ShardPlannerTest {
+
+  public void test_classes_sharing_rule_sets_stay_in_one_shard() {
+    Map<String, Double> millis = new HashMap<String, Double>();
+    millis.put("A1", 10.0);
+    millis.put("A2", 10.0);
+    millis.put("B1", 10.0);
+    millis.put("B2", 10.0);
+    final List<ShardPlanner.Shard> shards = new ShardPlanner(2, millis).plan(Arrays.asList(Arrays.asList("A1", "A2"), Arrays.asList("B1", "B2")));
+    assertThat(shards).hasSize(2);
+    assertThat(shards.get(0).getClassNames()).containsOnly("A1", "A2");
+    assertThat(shards.get(1).getClassNames()).containsOnly("B1", "B2");
+  }
+
+  public void test_longest_groups_are_balanced_first() {
+    Map<String, Double> millis = new HashMap<String, Double>();
+    millis.put("Long", 90.0);
+    millis.put("Medium", 50.0);
+    millis.put("Short1", 30.0);
+    millis.put("Short2", 10.0);
+    final List<ShardPlanner.Shard> shards = new ShardPlanner(2, millis).plan(Arrays.asList(
+        Collections.singletonList("Short1"), Collections.singletonList("Medium"), Collections.singletonList("Long"), Collections.singletonList("Short2")));
+    assertThat(shards.get(0).getClassNames()).containsOnly("Long");
+    assertThat(shards.get(1).getClassNames()).containsOnly("Medium", "Short1", "Short2");
+  }
+
+  public void test_group_longer_than_a_shard_is_split() {
+    Map<String, Double> millis = new HashMap<String, Double>();
+    millis.put("A1", 40.0);
+    millis.put("A2", 40.0);
+    millis.put("A3", 40.0);
+    millis.put("B1", 40.0);
+    final List<ShardPlanner.Shard> shards = new ShardPlanner(2, millis).plan(Arrays.asList(Arrays.asList("A1", "A2", "A3"), Collections.singletonList("B1")));
+    assertThat(shards).hasSize(2);
+    assertThat(shards.get(0).getEstimatedMillis()).isEqualTo(80.0);
+    assertThat(shards.get(1).getEstimatedMillis()).isEqualTo(80.0);
+  }
+
+  public void test_unknown_classes_are_estimated_by_average() {
+    final List<ShardPlanner.Shard> shards = new ShardPlanner(4, Collections.singletonMap("Known", 20.0)).plan(Arrays.asList(
+        Collections.singletonList("Known"), Collections.singletonList("Unknown")));
+    assertThat(shards).hasSize(2);
+    assertThat(shards.get(1).getEstimatedMillis()).isEqualTo(20.0);
+  }
+}
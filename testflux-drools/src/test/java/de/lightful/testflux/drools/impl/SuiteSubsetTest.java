@@ -0,0 +1,80 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import org.testng.annotations.Test;
+import org.testng.xml.XmlClass;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class SuiteSubsetTest {
+
+  public void test_subset_keeps_listeners_and_groups() {
+    XmlSuite suite = suite();
+    suite.setListeners(Arrays.asList("some.Listener"));
+    XmlTest test = addTest(suite, "rules", "a.One", "a.Two");
+    test.setIncludedGroups(Arrays.asList("fast"));
+    test.setExcludedGroups(Arrays.asList("fixture"));
+
+    XmlSuite subset = SuiteSubset.of(suite, Arrays.asList("a.Two"));
+
+    assertThat(subset.getListeners()).containsOnly("some.Listener");
+    final XmlTest subsetTest = subset.getTests().get(0);
+    assertThat(subsetTest.getIncludedGroups()).containsOnly("fast");
+    assertThat(subsetTest.getExcludedGroups()).containsOnly("fixture");
+    assertThat(subsetTest.getXmlClasses()).hasSize(1);
+    assertThat(subsetTest.getXmlClasses().get(0).getName()).isEqualTo("a.Two");
+  }
+
+  public void test_tests_without_given_classes_are_left_out() {
+    XmlSuite suite = suite();
+    addTest(suite, "first", "a.One");
+    addTest(suite, "second", "b.One");
+
+    XmlSuite subset = SuiteSubset.of(suite, Arrays.asList("b.One", "c.NotInSuite"));
+
+    assertThat(subset.getTests()).hasSize(1);
+    assertThat(subset.getTests().get(0).getName()).isEqualTo("second");
+  }
+
+  private static XmlSuite suite() {
+    XmlSuite suite = new XmlSuite();
+    suite.setName("suite");
+    return suite;
+  }
+
+  private static XmlTest addTest(XmlSuite suite, String name, String... classNames) {
+    XmlTest test = new XmlTest(suite);
+    if (!suite.getTests().contains(test)) {
+      suite.getTests().add(test);
+    }
+    test.setName(name);
+    List<XmlClass> testClasses = new ArrayList<XmlClass>();
+    for (String className : classNames) {
+      testClasses.add(new XmlClass(className));
+    }
+    test.setXmlClasses(testClasses);
+    return test;
+  }
+}
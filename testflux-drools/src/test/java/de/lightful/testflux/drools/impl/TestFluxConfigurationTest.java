@@ -0,0 +1,60 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.drools.impl;
+
+import de.lightful.testflux.drools.KnowledgeBaseSharing;
+import de.lightful.testflux.drools.TestFluxException;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class TestFluxConfigurationTest {
+
+  public void test_suite_parameter_is_used_if_set() {
+    TestFluxConfiguration configuration = new TestFluxConfiguration(Collections.singletonMap("testflux.test.value", "from suite"));
+    assertThat(configuration.getString("testflux.test.value", "default")).isEqualTo("from suite");
+  }
+
+  public void test_default_is_used_if_no_layer_sets_property() {
+    TestFluxConfiguration configuration = new TestFluxConfiguration(Collections.<String, String>emptyMap());
+    assertThat(configuration.getInt("testflux.test.unset", 42)).isEqualTo(42);
+  }
+
+  public void test_system_property_overrides_suite_parameter() {
+    System.setProperty("testflux.test.override", "from system");
+    try {
+      TestFluxConfiguration configuration = new TestFluxConfiguration(Collections.singletonMap("testflux.test.override", "from suite"));
+      assertThat(configuration.getString("testflux.test.override", "default")).isEqualTo("from system");
+    }
+    finally {
+      System.clearProperty("testflux.test.override");
+    }
+  }
+
+  public void test_enum_values_are_case_insensitive() {
+    TestFluxConfiguration configuration = new TestFluxConfiguration(Collections.singletonMap("testflux.test.sharing", "suite"));
+    assertThat(configuration.getEnum("testflux.test.sharing", KnowledgeBaseSharing.class, KnowledgeBaseSharing.METHOD)).isEqualTo(KnowledgeBaseSharing.SUITE);
+  }
+
+  @Test(expectedExceptions = TestFluxException.class)
+  public void test_non_numeric_value_is_rejected() {
+    new TestFluxConfiguration(Collections.singletonMap("testflux.test.number", "many")).getInt("testflux.test.number", 1);
+  }
+}
@@ -0,0 +1,239 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.maven;
+
+import de.lightful.testflux.drools.TestFluxException;
+import de.lightful.testflux.drools.impl.ClasspathFingerprint;
+import de.lightful.testflux.drools.impl.KnowledgePackageCompiler;
+import de.lightful.testflux.drools.impl.PersistentPackageStore;
+import de.lightful.testflux.drools.impl.TestFluxMetrics;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles the rule sets used by the test classes before the tests run, and stores the compiled packages where the
+ * {@link de.lightful.testflux.drools.DroolsRuleTestListener} finds them (its persistent package cache). Tests then start
+ * without compiling, and broken rule files fail the build before a test JVM is started.
+ * <p/>
+ * The settings must match those of the listener: <code>rulesRootDirectory</code>, <code>cacheDirectory</code> and
+ * <code>compileThreads</code> default to the listener's defaults.
+ *
+ * @goal precompile
+ * @phase process-test-classes
+ * @requiresDependencyResolution test
+ * @threadSafe
+ */
+public class PrecompileMojo extends AbstractMojo {
+
+  /**
+   * @parameter expression="${project.build.testOutputDirectory}"
+   * @required
+   */
+  private File testClassesDirectory;
+
+  /**
+   * @parameter expression="${project.testClasspathElements}"
+   * @required
+   * @readonly
+   */
+  private List<String> testClasspathElements;
+
+  /**
+   * The directory rule base directories are relative to (the listener's <code>rulesRootDirectory</code>).
+   *
+   * @parameter expression="${rulesRootDirectory}" default-value="${basedir}"
+   */
+  private File rulesRootDirectory;
+
+  /**
+   * Where compiled packages are stored, relative to {@link #rulesRootDirectory} if not absolute (the listener's
+   * <code>testflux.cache.directory</code>).
+   *
+   * @parameter expression="${testflux.cache.directory}" default-value="target/testflux-cache"
+   */
+  private String cacheDirectory;
+
+  /**
+   * The listener's <code>testflux.compile.threads</code>. It decides whether packages are stored per rule source or
+   * per rule set, so it must be the same here.
+   *
+   * @parameter expression="${testflux.compile.threads}" default-value="1"
+   */
+  private int compileThreads;
+
+  /**
+   * Number of rule sets compiled at the same time. Defaults to the number of processors.
+   *
+   * @parameter expression="${testflux.precompile.threads}" default-value="0"
+   */
+  private int threads;
+
+  /**
+   * @parameter expression="${testflux.precompile.skip}" default-value="false"
+   */
+  private boolean skip;
+
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    if (skip) {
+      getLog().info("Skipping rule precompilation.");
+      return;
+    }
+    if (!testClassesDirectory.isDirectory()) {
+      getLog().info("No test classes found in " + testClassesDirectory + ", nothing to precompile.");
+      return;
+    }
+
+    final ClassLoader originalContextClassLoader = Thread.currentThread().getContextClassLoader();
+    final URLClassLoader testClassLoader = new URLClassLoader(toUrls(testClasspathElements), getClass().getClassLoader());
+    Thread.currentThread().setContextClassLoader(testClassLoader);
+    try {
+      precompile(testClassLoader);
+    }
+    finally {
+      Thread.currentThread().setContextClassLoader(originalContextClassLoader);
+    }
+  }
+
+  /**
+   * Runs with the test class loader as context class loader, which Drools uses to find fact classes. Threads started
+   * from here (including the compiler's own) inherit it.
+   */
+  private void precompile(ClassLoader testClassLoader) throws MojoFailureException, MojoExecutionException {
+    TestClassScanner scanner = new TestClassScanner(testClassLoader, rulesRootDirectory.getAbsolutePath());
+    final Collection<TestClassScanner.RuleSet> ruleSets;
+    try {
+      ruleSets = scanner.scan(testClassesDirectory);
+    }
+    catch (TestFluxException e) {
+      throw new MojoFailureException(e.getMessage());
+    }
+    for (String unloadableClass : scanner.getUnloadableClasses()) {
+      getLog().debug("Skipping class " + unloadableClass + ", which cannot be loaded.");
+    }
+    if (ruleSets.isEmpty()) {
+      getLog().info("No @CompileRules annotations found, nothing to precompile.");
+      return;
+    }
+
+    final TestFluxMetrics metrics = new TestFluxMetrics();
+    final KnowledgePackageCompiler compiler = new KnowledgePackageCompiler(compileThreads, createPackageStore(), metrics);
+    final long start = System.nanoTime();
+    final List<String> failures;
+    try {
+      failures = compileAll(ruleSets, compiler);
+    }
+    finally {
+      compiler.shutdown();
+    }
+    if (!failures.isEmpty()) {
+      StringBuilder message = new StringBuilder("Compiling rules failed for " + failures.size() + " of " + ruleSets.size() + " rule sets:");
+      for (String failure : failures) {
+        message.append("\n").append(failure);
+      }
+      throw new MojoFailureException(message.toString());
+    }
+    getLog().info(String.format("Precompiled %d rule sets in %.1f s (%d taken from cache).", ruleSets.size(), (System.nanoTime() - start) / 1e9,
+                                metrics.getCacheHits(TestFluxMetrics.Cache.PERSISTENT)));
+  }
+
+  private List<String> compileAll(Collection<TestClassScanner.RuleSet> ruleSets, final KnowledgePackageCompiler compiler) throws MojoExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    try {
+      List<Future<String>> results = new ArrayList<Future<String>>(ruleSets.size());
+      for (final TestClassScanner.RuleSet ruleSet : ruleSets) {
+        results.add(executor.submit(new Callable<String>() {
+          public String call() {
+            try {
+              compiler.compile(ruleSet.getCompilationUnits());
+              return null;
+            }
+            catch (TestFluxException e) {
+              return "Rule set used by " + ruleSet.getUsedBy() + ": " + e.getMessage();
+            }
+          }
+        }));
+      }
+
+      List<String> failures = new ArrayList<String>();
+      for (Future<String> result : results) {
+        final String failure = waitFor(result);
+        if (failure != null) {
+          failures.add(failure);
+        }
+      }
+      return failures;
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private String waitFor(Future<String> result) throws MojoExecutionException {
+    try {
+      return result.get();
+    }
+    catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while precompiling rules.", ie);
+    }
+    catch (ExecutionException ee) {
+      throw new MojoExecutionException("Exception occurred while precompiling rules: " + ee.getCause().getMessage(), ee.getCause());
+    }
+  }
+
+  /**
+   * Computes the fingerprint from the test class path, like the listener does from the class path of the test JVM.
+   */
+  private PersistentPackageStore createPackageStore() {
+    File directory = new File(cacheDirectory.trim());
+    if (!directory.isAbsolute()) {
+      directory = new File(rulesRootDirectory, cacheDirectory.trim());
+    }
+    List<File> classpathEntries = new ArrayList<File>(testClasspathElements.size());
+    for (String element : testClasspathElements) {
+      classpathEntries.add(new File(element));
+    }
+    return new PersistentPackageStore(directory, ClasspathFingerprint.compute(classpathEntries));
+  }
+
+  private static URL[] toUrls(List<String> classpathElements) throws MojoExecutionException {
+    URL[] urls = new URL[classpathElements.size()];
+    for (int i = 0; i < urls.length; i++) {
+      try {
+        urls[i] = new File(classpathElements.get(i)).toURI().toURL();
+      }
+      catch (MalformedURLException e) {
+        throw new MojoExecutionException("Invalid test class path element " + classpathElements.get(i) + ".", e);
+      }
+    }
+    return urls;
+  }
+}
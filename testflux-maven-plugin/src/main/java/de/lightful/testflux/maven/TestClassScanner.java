@@ -0,0 +1,140 @@
+/******************************************************************************
+ * Copyright (c) 2010 Ansgar Konermann                                        *
+ *                                                                            *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you       *
+ * may not use this file except in compliance with the License. You may       *
+ * obtain a copy of the License at                                            *
+ *                                                                            *
+ *              http://www.apache.org/licenses/LICENSE-2.0                    *
+ *                                                                            *
+ * Unless required by  applicable law or agreed to in writing, software       *
+ * distributed under  the License is distributed  on an "AS IS"  BASIS,       *
+ * WITHOUT  WARRANTIES  OR  CONDITIONS  OF  ANY  KIND,   either express       *
+ * or implied.  See the License for  the  specific  language  governing       *
+ * permissions and limitations under the License.                             *
+ ******************************************************************************/
+
+package de.lightful.testflux.maven;
+
+import de.lightful.testflux.drools.CompileRules;
+import de.lightful.testflux.drools.RulesBaseDirectory;
+import de.lightful.testflux.drools.impl.CompilationUnit;
+import de.lightful.testflux.drools.impl.RuleDirectoryScanner;
+import de.lightful.testflux.drools.impl.RuleSetKey;
+import de.lightful.testflux.drools.impl.RuleSourceResolver;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the rule sets the {@link de.lightful.testflux.drools.DroolsRuleTestListener} will compile for the test classes
+ * in a directory: one per class level and one per method level {@link CompileRules} annotation, resolved exactly like
+ * the listener resolves them, so the compiled packages end up under the same keys.
+ */
+class TestClassScanner {
+
+  private final ClassLoader testClassLoader;
+  private final RuleSourceResolver resolver;
+  private final Map<RuleSetKey, RuleSet> ruleSets = new LinkedHashMap<RuleSetKey, RuleSet>();
+  private final List<String> unloadableClasses = new ArrayList<String>();
+
+  public TestClassScanner(ClassLoader testClassLoader, String rulesRootDirectory) {
+    this.testClassLoader = testClassLoader;
+    this.resolver = new RuleSourceResolver(rulesRootDirectory, new RuleDirectoryScanner());
+  }
+
+  public Collection<RuleSet> scan(File testClassesDirectory) {
+    scanDirectory(testClassesDirectory, "");
+    return ruleSets.values();
+  }
+
+  /**
+   * @return the classes which could not be loaded and were therefore skipped.
+   */
+  public List<String> getUnloadableClasses() {
+    return unloadableClasses;
+  }
+
+  private void scanDirectory(File directory, String packagePrefix) {
+    final File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        scanDirectory(child, packagePrefix + child.getName() + ".");
+      }
+      else if (child.getName().endsWith(".class")) {
+        final String className = packagePrefix + child.getName().substring(0, child.getName().length() - ".class".length());
+        scanClass(className);
+      }
+    }
+  }
+
+  private void scanClass(String className) {
+    final Class<?> testClass;
+    try {
+      testClass = Class.forName(className, false, testClassLoader);
+    }
+    catch (ClassNotFoundException e) {
+      unloadableClasses.add(className);
+      return;
+    }
+    catch (LinkageError e) {
+      unloadableClasses.add(className);
+      return;
+    }
+    if (testClass.isInterface() || Modifier.isAbstract(testClass.getModifiers())) {
+      return;
+    }
+
+    final RulesBaseDirectory classBaseDirectory = testClass.getAnnotation(RulesBaseDirectory.class);
+    final CompileRules classRules = testClass.getAnnotation(CompileRules.class);
+    if (classRules != null) {
+      addRuleSet(resolver.resolve(classBaseDirectory, classRules.value()), testClass.getName());
+    }
+    for (Method method : testClass.getMethods()) {
+      final CompileRules methodRules = method.getAnnotation(CompileRules.class);
+      if (methodRules != null) {
+        final RulesBaseDirectory methodBaseDirectory = method.getAnnotation(RulesBaseDirectory.class);
+        addRuleSet(resolver.resolve(methodBaseDirectory == null ? classBaseDirectory : methodBaseDirectory, methodRules.value()),
+                   testClass.getName() + "." + method.getName());
+      }
+    }
+  }
+
+  private void addRuleSet(List<CompilationUnit> compilationUnits, String usedBy) {
+    final RuleSetKey key = RuleSetKey.forUnits(compilationUnits);
+    if (!compilationUnits.isEmpty() && !ruleSets.containsKey(key)) {
+      ruleSets.put(key, new RuleSet(compilationUnits, usedBy));
+    }
+  }
+
+  static class RuleSet {
+
+    private final List<CompilationUnit> compilationUnits;
+    private final String usedBy;
+
+    public RuleSet(List<CompilationUnit> compilationUnits, String usedBy) {
+      this.compilationUnits = compilationUnits;
+      this.usedBy = usedBy;
+    }
+
+    public List<CompilationUnit> getCompilationUnits() {
+      return compilationUnits;
+    }
+
+    /**
+     * @return the first test class (or method) found using this rule set.
+     */
+    public String getUsedBy() {
+      return usedBy;
+    }
+  }
+}